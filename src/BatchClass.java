@@ -0,0 +1,346 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import core.IJobListener;
+import core.ISplitter;
+import core.JobScheduler;
+import core.RateLimiter;
+import services.CodecService;
+import services.HeaderService;
+import services.JobFactoryService;
+import splitter.AbstractSplitter;
+import stitcher.AbstractStitcher;
+import stitcher.Stitcher;
+import stitcher.Verifier;
+
+/**
+ * @author federico Classe contenente il main() di FileSplitterPro2 da riga di
+ *         comando, senza interfaccia grafica. Legge un manifest con un job per
+ *         riga, li esegue con core>JobScheduler e stampa la velocit&agrave; di
+ *         ogni job. Il codice di uscita &egrave; 0 se tutti i job sono finiti
+ *         senza errori, 1 se almeno un job &egrave; fallito e 2 se il manifest o
+ *         gli argomenti non sono validi, cos&igrave; pu&ograve; essere usato da
+ *         cron e dagli script.
+ */
+public class BatchClass {
+	private static final String USAGE = "Usage: java BatchClass [-j jobs] [-rate MB/s] [-disk [path=]n]... <manifest | ->\n"
+			+ "  -j     jobs run together in each pool (compress/crypt and plain), default: cores\n"
+			+ "  -rate  bandwidth limit for all jobs together\n"
+			+ "  -disk  jobs run together on each device (e.g. 1 for HDD, 8 for NVMe), default: 4;\n"
+			+ "         path=n sets the limit of the device holding path only\n"
+			+ "Manifest, one job per line ('#' starts a comment, paths with spaces in double quotes):\n"
+			+ "  split  <file> <destFolder> parts=<n> [bytes=B|KB|MB|GB] [compress] [codec=gzip|deflate|lz]\n"
+			+ "         [level=1-9] [crypt password=<pwd>] [workers=<n>] [mapped] [crc] [rate=<MB/s>]\n"
+			+ "  stitch <part> <destFolder> [password=<pwd>] [workers=<n>] [mapped] [rate=<MB/s>]\n"
+			+ "  verify <part | manifest> [password=<pwd>] [workers=<n>] [rate=<MB/s>]\n"
+			+ "With bytes=<unit> every part is <n> units long, otherwise the file is split in <n> parts.\n"
+			+ "Plain parts are copied zero-copy without a checksum, crc adds one (compressed, crypted\n"
+			+ "and mapped parts always have it).";
+	private static final int EXIT_OK = 0, EXIT_FAILED = 1, EXIT_USAGE = 2;
+
+	/**
+	 * Classe annidata che riceve gli eventi dei job dallo scheduler e li stampa
+	 * sulla console. Gli errori dei job arrivano invece al {@link JobListener}
+	 * della loro riga, qui restano solo quelli che non appartengono a nessun job.
+	 */
+	private static class ConsoleListener implements IJobListener {
+		private final Map<ISplitter, JobListener> jobs = new IdentityHashMap<ISplitter, JobListener>();
+		private final AtomicInteger errors = new AtomicInteger();
+
+		@Override
+		public void printError(String err) {
+			errors.incrementAndGet();
+			System.err.println(err);
+		}
+
+		@Override
+		public String takePassword(String file) {
+			return null;
+		}
+
+		@Override
+		public void jobFinished(ISplitter job, long nanos) {
+			if (job.getControl().isStopped() && job.getControl().isPaused())
+				return;
+			JobListener l = listenerOf(job);
+			double seconds = nanos / 1e9;
+			double mb = Math.max(0, job.getTotalBytes()) / (1024.0 * 1024.0);
+			int crc = job instanceof AbstractSplitter ? ((AbstractSplitter) job).getFileChecksum()
+					: job instanceof Stitcher ? ((Stitcher) job).getFileChecksum()
+					: job instanceof Verifier ? ((Verifier) job).getFileChecksum() : 0;
+			System.out.printf("%s line %d: %s %s -> %s  %.1f MB in %.2f s (%.1f MB/s)%s%n",
+					l.failed ? "FAIL" : "OK", l.line,
+					job instanceof AbstractSplitter ? "split" : job instanceof Verifier ? "verify" : "stitch",
+					job.getSourceFilePath(), job.getDestFolderPath(), mb, seconds, mb / Math.max(seconds, 1e-9),
+					crc != 0 ? String.format("  crc32c=%08x", crc) : "");
+		}
+
+		private synchronized JobListener listenerOf(ISplitter job) {
+			return jobs.get(job);
+		}
+
+		private synchronized void register(ISplitter job, JobListener listener) {
+			jobs.put(job, listener);
+		}
+	}
+
+	/**
+	 * Classe annidata che riceve gli errori e le richieste di password di un solo
+	 * job. Ogni riga del manifest crea il suo job con un proprio listener,
+	 * cos&igrave; gli errori segnalati da qualunque thread del job (parti in
+	 * parallelo, transformPool, segmenti cifrati) vengono attribuiti alla sua
+	 * riga, e job diversi sullo stesso file possono avere password diverse.
+	 */
+	private static class JobListener implements IJobListener {
+		private final ConsoleListener console;
+		private final int line;
+		private volatile String password;
+		private volatile boolean failed;
+
+		private JobListener(ConsoleListener console, int line) {
+			this.console = console;
+			this.line = line;
+		}
+
+		@Override
+		public void printError(String err) {
+			failed = true;
+			console.errors.incrementAndGet();
+			System.err.println("line " + line + ": " + err);
+		}
+
+		@Override
+		public String takePassword(String file) {
+			return password;
+		}
+	}
+
+	/**
+	 * Avvio da riga di comando.
+	 *
+	 * @param args opzioni e path del manifest, "-" per leggerlo dallo standard
+	 *             input
+	 */
+	public static void main(String[] args) {
+		System.exit(run(args));
+	}
+
+	/**
+	 * Metodo che legge il manifest, crea i job ed aspetta che siano finiti.
+	 *
+	 * @param args opzioni e path del manifest
+	 * @return codice di uscita
+	 */
+	static int run(String[] args) {
+		int jobs = Runtime.getRuntime().availableProcessors();
+		int diskLimit = 0;
+		Map<String, Integer> diskLimits = new HashMap<String, Integer>();
+		String manifest = null;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("-j"))
+					jobs = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-rate"))
+					RateLimiter.getGlobal().setRateMB(Double.parseDouble(args[++i]));
+				else if (args[i].equals("-disk")) {
+					String limit = args[++i];
+					int eq = limit.lastIndexOf('=');
+					int n = Integer.parseInt(limit.substring(eq + 1));
+					if (n < 1)
+						throw new IllegalArgumentException("-disk must be at least 1");
+					if (eq < 0)
+						diskLimit = n;
+					else
+						diskLimits.put(limit.substring(0, eq), n);
+				}
+				else if (manifest == null)
+					manifest = args[i];
+				else
+					throw new IllegalArgumentException("Unexpected argument " + args[i]);
+			}
+		} catch (RuntimeException e) {
+			System.err.println(USAGE);
+			return EXIT_USAGE;
+		}
+		if (manifest == null || jobs < 1) {
+			System.err.println(USAGE);
+			return EXIT_USAGE;
+		}
+
+		ConsoleListener listener = new ConsoleListener();
+		List<ISplitter> queue = new ArrayList<ISplitter>();
+		try (Reader r = manifest.equals("-") ? new InputStreamReader(System.in) : new FileReader(manifest);
+				BufferedReader in = new BufferedReader(r)) {
+			String text;
+			int line = 0;
+			while ((text = in.readLine()) != null) {
+				line++;
+				List<String> tokens = tokenize(text);
+				if (tokens.isEmpty())
+					continue;
+				JobListener jobListener = new JobListener(listener, line);
+				ISplitter job = parseJob(tokens, jobListener);
+				if (job == null)
+					return EXIT_USAGE;
+				listener.register(job, jobListener);
+				queue.add(job);
+			}
+		} catch (IOException e) {
+			System.err.println("Cannot read manifest " + manifest);
+			return EXIT_USAGE;
+		}
+
+		JobScheduler scheduler = new JobScheduler(jobs, jobs);
+		scheduler.setListener(listener);
+		if (diskLimit > 0)
+			scheduler.setDefaultStoreLimit(diskLimit);
+		for (Map.Entry<String, Integer> e : diskLimits.entrySet())
+			if (!scheduler.setStoreLimit(e.getKey(), e.getValue())) {
+				System.err.println("Cannot read the device of " + e.getKey());
+				return EXIT_USAGE;
+			}
+		List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+		long start = System.nanoTime();
+		for (ISplitter job : queue)
+			futures.add(scheduler.submit(job));
+		int failed = 0;
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				futures.get(i).join();
+				if (listener.listenerOf(queue.get(i)).failed)
+					failed++;
+			} catch (CompletionException | CancellationException e) {
+				failed++;
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		long total = 0;
+		for (ISplitter job : queue)
+			total += Math.max(0, job.getTotalBytes());
+		System.out.printf("%d jobs, %d failed, %.1f MB in %.2f s (%.1f MB/s)%n", queue.size(), failed,
+				total / (1024.0 * 1024.0), seconds, total / (1024.0 * 1024.0) / Math.max(seconds, 1e-9));
+		return failed > 0 || listener.errors.get() > 0 ? EXIT_FAILED : EXIT_OK;
+	}
+
+	/**
+	 * Metodo che crea un job da una riga del manifest con
+	 * services>JobFactoryService, come fa la gui.
+	 *
+	 * @param tokens   parole della riga
+	 * @param listener listener della riga, che riceve gli errori del job
+	 * @return job creato, null se la riga non &egrave; valida
+	 */
+	private static ISplitter parseJob(List<String> tokens, JobListener listener) {
+		String kind = tokens.get(0);
+		boolean verify = kind.equals("verify");
+		if (tokens.size() < (verify ? 2 : 3) || !(kind.equals("split") || kind.equals("stitch") || verify)) {
+			listener.printError(
+					"expected 'split|stitch <source> <destFolder> [options]' or 'verify <source> [options]'");
+			return null;
+		}
+		String sf = tokens.get(1), df = verify ? null : tokens.get(2);
+		Map<String, String> options = new HashMap<String, String>();
+		for (String t : tokens.subList(verify ? 2 : 3, tokens.size())) {
+			int eq = t.indexOf('=');
+			options.put(eq < 0 ? t : t.substring(0, eq), eq < 0 ? "" : t.substring(eq + 1));
+		}
+		try {
+			ISplitter job;
+			if (kind.equals("split")) {
+				int parts = Integer.parseInt(options.getOrDefault("parts", "0"));
+				boolean compress = options.containsKey("compress");
+				boolean crypt = options.containsKey("crypt");
+				String password = options.get("password");
+				if (parts < 1) {
+					listener.printError("parts must be at least 1");
+					return null;
+				}
+				if (crypt && (password == null || password.isEmpty())) {
+					listener.printError("crypt requires password=<pwd>");
+					return null;
+				}
+				String codec = options.getOrDefault("codec", CodecService.getDefault().getName());
+				int level = Integer.parseInt(options.getOrDefault("level", String.valueOf(CodecService.DEFAULT_LEVEL)));
+				String bytes = options.get("bytes");
+				if (bytes != null && JobFactoryService.getBytesDim(bytes) == 0) {
+					listener.printError("bytes must be one of B, KB, MB, GB");
+					return null;
+				}
+				job = bytes == null
+						? JobFactoryService.retrieveJob(sf, df, parts, compress, crypt, password, codec, level, listener)
+						: JobFactoryService.retrieveJob(sf, df, parts, bytes, compress, crypt, password, codec, level,
+								listener);
+				if (job == null)
+					return null;
+				if (options.containsKey("workers"))
+					((AbstractSplitter) job).setWorkers(Integer.parseInt(options.get("workers")));
+				((AbstractSplitter) job).setMappedIO(options.containsKey("mapped"));
+				((AbstractSplitter) job).setPlainChecksums(options.containsKey("crc"));
+			} else {
+				listener.password = options.get("password");
+				Vector<ISplitter> created = new Vector<ISplitter>();
+				if (HeaderService.exctractDataFirst(-1, sf, df, verify, listener, created) == null)
+					return null;
+				job = created.get(0);
+				AbstractStitcher stitcher = (AbstractStitcher) job;
+				if (options.containsKey("workers"))
+					stitcher.setWorkers(Integer.parseInt(options.get("workers")));
+				if (!verify)
+					stitcher.setMappedIO(options.containsKey("mapped"));
+			}
+			if (options.containsKey("rate"))
+				job.getRateLimiter().setRateMB(Double.parseDouble(options.get("rate")));
+			return job;
+		} catch (NumberFormatException e) {
+			listener.printError("invalid number " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Metodo che divide una riga del manifest in parole separate da spazi. Le
+	 * parole tra doppi apici possono contenere spazi e "#" inizia un commento.
+	 *
+	 * @param line riga del manifest
+	 * @return parole della riga, vuota per righe vuote o di commento
+	 */
+	private static List<String> tokenize(String line) {
+		List<String> tokens = new ArrayList<String>();
+		StringBuilder sb = null;
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '"') {
+				quoted = !quoted;
+				if (sb == null)
+					sb = new StringBuilder();
+			} else if (!quoted && c == '#')
+				break;
+			else if (!quoted && Character.isWhitespace(c)) {
+				if (sb != null)
+					tokens.add(sb.toString());
+				sb = null;
+			} else {
+				if (sb == null)
+					sb = new StringBuilder();
+				sb.append(c);
+			}
+		}
+		if (sb != null)
+			tokens.add(sb.toString());
+		return tokens;
+	}
+}
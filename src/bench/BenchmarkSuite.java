@@ -0,0 +1,562 @@
+package bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Vector;
+
+import com.sun.management.ThreadMXBean;
+
+import core.Header;
+import core.IJobListener;
+import core.ISplitter;
+import services.ChecksumService;
+import services.CodecService;
+import services.EncryptService;
+import services.HeaderService;
+import services.ICodec;
+import services.JobFactoryService;
+import stitcher.AbstractStitcher;
+
+/**
+ * @author federico
+ * Suite di benchmark dei percorsi critici di FileSplitterPro2: ciclo di copia, splitter, codec,
+ * cifratura, Header e stitcher. Ogni benchmark viene eseguito alcune volte a vuoto per scaldare il
+ * JIT e poi misurato; i risultati (media, minimo, deviazione standard, MB/s) vengono scritti in
+ * JSON per confrontarli tra una versione e l'altra. Gli input sono file sintetici generati nella
+ * cartella di lavoro: uno comprimibile (testo ripetitivo) ed uno casuale.
+ * I cicli di copia con i buffer di services>BufferPoolService vengono anche controllati con le
+ * allocazioni per thread di ThreadMXBean: se a regime allocano pi&ugrave; di
+ * {@value #ALLOC_LIMIT} byte la suite fallisce, cos&igrave; una regressione non passa inosservata.
+ * <p>
+ * Uso: java bench.BenchmarkSuite [-dir cartella] [-size MB] [-warmup n] [-iter n] [-filter testo]
+ * [-out file.json]
+ * </p>
+ */
+public class BenchmarkSuite {
+	private static final String PASSWORD = "benchmark-password";
+	private static final long ALLOC_COPY_BYTES = 1024L * 1024 * 1024; // 1GB, 16384 blocchi da 64KB
+	private static final long ALLOC_LIMIT = 64 * 1024; // molto meno di un byte per blocco
+	private final File dir;
+	private final int size, warmup, iterations;
+	private final String filter;
+	private final List<Map<String, Object>> results = new ArrayList<Map<String, Object>>();
+	private final IJobListener listener = new IJobListener() {
+		@Override
+		public void printError(String err) {
+			throw new IllegalStateException(err);
+		}
+
+		@Override
+		public String takePassword(String file) {
+			return PASSWORD;
+		}
+	};
+	private File compressible, random;
+
+	/**
+	 * Interfaccia del corpo di un benchmark.
+	 */
+	private interface Body {
+		/**
+		 * Esegue una volta l'operazione misurata.
+		 *
+		 * @return byte elaborati, 0 per misurare solo le esecuzioni al secondo
+		 * @throws Exception in caso di errore
+		 */
+		long run() throws Exception;
+	}
+
+	/**
+	 * Costruttore della classe BenchmarkSuite.
+	 *
+	 * @param dir        cartella di lavoro per gli input e le parti
+	 * @param size       dimensione dei file di input in byte
+	 * @param warmup     esecuzioni di riscaldamento
+	 * @param iterations esecuzioni misurate
+	 * @param filter     esegue solo i benchmark che contengono questo testo, null
+	 *                   per tutti
+	 */
+	public BenchmarkSuite(File dir, int size, int warmup, int iterations, String filter) {
+		this.dir = dir;
+		this.size = size;
+		this.warmup = warmup;
+		this.iterations = iterations;
+		this.filter = filter;
+	}
+
+	/**
+	 * Avvio da riga di comando.
+	 *
+	 * @param args opzioni della suite
+	 * @throws Exception in caso di errore di un benchmark
+	 */
+	public static void main(String[] args) throws Exception {
+		File dir = new File(System.getProperty("java.io.tmpdir"), "fsp2-bench");
+		int sizeMB = 64, warmup = 2, iterations = 5;
+		String filter = null, out = null;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-dir":
+				dir = new File(args[++i]);
+				break;
+			case "-size":
+				sizeMB = Integer.parseInt(args[++i]);
+				break;
+			case "-warmup":
+				warmup = Integer.parseInt(args[++i]);
+				break;
+			case "-iter":
+				iterations = Integer.parseInt(args[++i]);
+				break;
+			case "-filter":
+				filter = args[++i];
+				break;
+			case "-out":
+				out = args[++i];
+				break;
+			default:
+				System.err.println("Usage: java bench.BenchmarkSuite [-dir d] [-size MB] [-warmup n] [-iter n]"
+						+ " [-filter text] [-out file.json]");
+				System.exit(2);
+			}
+		}
+		BenchmarkSuite suite = new BenchmarkSuite(dir, sizeMB * 1024 * 1024, warmup, iterations, filter);
+		suite.runAll();
+		if (out == null)
+			suite.writeJson(System.out);
+		else
+			try (PrintStream ps = new PrintStream(new FileOutputStream(out), false, "UTF-8")) {
+				suite.writeJson(ps);
+			}
+	}
+
+	/**
+	 * Metodo che genera gli input ed esegue tutti i benchmark.
+	 *
+	 * @throws Exception in caso di errore di un benchmark
+	 */
+	public void runAll() throws Exception {
+		dir.mkdirs();
+		compressible = new File(dir, "compressible.bin");
+		random = new File(dir, "random.bin");
+		generate(compressible, true);
+		generate(random, false);
+		File[] inputs = { compressible, random };
+
+		// ciclo di copia posizionale degli splitter con diverse dimensioni del buffer
+		for (int buffer : new int[] { 8 * 1024, 64 * 1024, 256 * 1024, 1024 * 1024 })
+			bench("copy.positional", params("buffer", buffer), () -> positionalCopy(compressible, buffer));
+
+		// splitter per numero di parti e per dimensione delle parti
+		File splitDir = new File(dir, "split");
+		for (File input : inputs) {
+			String in = input.getName();
+			bench("split.size", params("input", in, "parts", 8), () -> {
+				clean(splitDir);
+				runJob(JobFactoryService.retrieveJob(input.getPath(), splitDir.getPath(), 8, false, false, null,
+						listener));
+				return input.length();
+			});
+			bench("split.chunk", params("input", in, "chunkMB", 8), () -> {
+				clean(splitDir);
+				runJob(JobFactoryService.retrieveJob(input.getPath(), splitDir.getPath(), 8, "MB", false, false, null,
+						listener));
+				return input.length();
+			});
+		}
+
+		// compressione di una parte con ogni codec
+		for (File input : inputs)
+			for (String name : CodecService.getNames())
+				for (int level : new int[] { 1, CodecService.DEFAULT_LEVEL }) {
+					ICodec codec = CodecService.getCodec(name);
+					byte[] data = Files.readAllBytes(input.toPath());
+					bench("codec.compress", params("input", input.getName(), "codec", name, "level", level), () -> {
+						try (OutputStream os = codec.compress(new NullOutputStream(), level)) {
+							os.write(data);
+						}
+						return data.length;
+					});
+				}
+
+		// cifratura: preparazione della chiave (PBKDF2) a freddo e con la cache, poi
+		// cifratura a segmenti
+		byte[] aad = EncryptService.partAad(1, 1, 0);
+		bench("crypt.setup", params("cache", "cold"), () -> {
+			EncryptService.getEncryptStream(PASSWORD, EncryptService.newSalt(), aad, new NullOutputStream()).close();
+			return 0;
+		});
+		byte[] salt = EncryptService.newSalt();
+		bench("crypt.setup", params("cache", "warm"), () -> {
+			EncryptService.getEncryptStream(PASSWORD, salt, aad, new NullOutputStream()).close();
+			return 0;
+		});
+		byte[] plain = Files.readAllBytes(random.toPath());
+		bench("crypt.encrypt", params("input", random.getName()), () -> {
+			try (OutputStream os = EncryptService.getEncryptStream(PASSWORD, salt, aad, new NullOutputStream())) {
+				os.write(plain);
+			}
+			return plain.length;
+		});
+
+		// serializzazione e deserializzazione dell'Header
+		Header header = new Header(100, 1, true, true, "benchmark-file-name.bin", CodecService.GZIP);
+		byte[] headerBytes = HeaderService.Header2ByteArray(header, listener);
+		bench("header.serialize", params("batch", 1000), () -> {
+			for (int i = 0; i < 1000; i++)
+				HeaderService.Header2ByteArray(header, listener);
+			return 0;
+		});
+		bench("header.deserialize", params("batch", 1000), () -> {
+			for (int i = 0; i < 1000; i++)
+				HeaderService.byteArray2Header(headerBytes, listener);
+			return 0;
+		});
+
+		// tutta la famiglia degli stitcher: le parti vengono create una volta sola
+		File stitchDir = new File(dir, "stitch");
+		for (File input : inputs)
+			for (int mode = 0; mode < 4; mode++) {
+				boolean compress = (mode & 1) != 0, crypt = (mode & 2) != 0;
+				File parts = new File(dir, "parts-" + input.getName() + "-" + mode);
+				clean(parts);
+				runJob(JobFactoryService.retrieveJob(input.getPath(), parts.getPath(), 8, compress, crypt,
+						crypt ? PASSWORD : null, listener));
+				Vector<ISplitter> created = new Vector<ISplitter>();
+				File first = new File(parts, input.getName() + ".1");
+				bench("stitch", params("input", input.getName(), "compress", compress, "crypt", crypt), () -> {
+					clean(stitchDir);
+					created.clear();
+					HeaderService.exctractDataFirst(-1, first.getPath(), stitchDir.getPath(), listener, created);
+					AbstractStitcher stitcher = (AbstractStitcher) created.get(0);
+					runJob(stitcher);
+					return input.length();
+				});
+			}
+
+		// allocazioni dei cicli di copia con i buffer del pool: lo stitcher copia uno
+		// stream sintetico, ChecksumService.copy() il file casuale su una parte
+		Vector<ISplitter> created = new Vector<ISplitter>();
+		File parts = new File(dir, "parts-" + random.getName() + "-0");
+		HeaderService.exctractDataFirst(-1, new File(parts, random.getName() + ".1").getPath(), stitchDir.getPath(),
+				listener, created);
+		AbstractStitcher copier = (AbstractStitcher) created.get(0);
+		allocation("alloc.copy.stream", params("bytes", ALLOC_COPY_BYTES), () -> {
+			copier.bufferedReadWriteAll(new ZeroInputStream(ALLOC_COPY_BYTES), new NullOutputStream());
+			return ALLOC_COPY_BYTES;
+		});
+		File copy = new File(dir, "alloc-copy.bin");
+		allocation("alloc.copy.checksum", params("input", random.getName()), () -> {
+			try (FileChannel src = FileChannel.open(random.toPath(), StandardOpenOption.READ);
+					FileChannel dest = FileChannel.open(copy.toPath(), StandardOpenOption.CREATE,
+							StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+				return ChecksumService.copy(ChecksumService.newChecksum(), src, 0, src.size(), dest);
+			}
+		});
+		copy.delete();
+	}
+
+	/**
+	 * Metodo che esegue un benchmark e ne salva il risultato.
+	 *
+	 * @param name   nome del benchmark
+	 * @param params parametri del benchmark
+	 * @param body   operazione da misurare
+	 * @throws Exception in caso di errore del benchmark
+	 */
+	private void bench(String name, Map<String, Object> params, Body body) throws Exception {
+		if (filter != null && !name.contains(filter))
+			return;
+		for (int i = 0; i < warmup; i++)
+			body.run();
+		double[] ms = new double[iterations];
+		long bytes = 0;
+		for (int i = 0; i < iterations; i++) {
+			long start = System.nanoTime();
+			bytes = body.run();
+			ms[i] = (System.nanoTime() - start) / 1e6;
+		}
+		double sum = 0, min = Double.MAX_VALUE;
+		for (double m : ms) {
+			sum += m;
+			min = Math.min(min, m);
+		}
+		double mean = sum / iterations, var = 0;
+		for (double m : ms)
+			var += (m - mean) * (m - mean);
+		Map<String, Object> r = new LinkedHashMap<String, Object>();
+		r.put("benchmark", name);
+		r.put("params", params);
+		r.put("iterations", iterations);
+		r.put("meanMs", mean);
+		r.put("minMs", min);
+		r.put("stddevMs", Math.sqrt(var / Math.max(1, iterations - 1)));
+		if (bytes > 0)
+			r.put("mbPerSec", bytes / (1024.0 * 1024.0) / (mean / 1000));
+		else
+			r.put("opsPerSec", 1000 / mean);
+		results.add(r);
+		System.err.printf(Locale.ROOT, "%-18s %-60s %10.2f ms%n", name, params, mean);
+	}
+
+	/**
+	 * Metodo che misura con ThreadMXBean i byte allocati dal thread corrente in una
+	 * esecuzione dopo il riscaldamento e ne salva il risultato. Se sono pi&ugrave;
+	 * di {@value #ALLOC_LIMIT} il ciclo di copia alloca di nuovo ad ogni blocco e
+	 * la suite fallisce.
+	 *
+	 * @param name   nome del controllo
+	 * @param params parametri del controllo
+	 * @param body   operazione da misurare
+	 * @throws Exception in caso di errore o se l'operazione alloca troppo
+	 */
+	private void allocation(String name, Map<String, Object> params, Body body) throws Exception {
+		if (filter != null && !name.contains(filter))
+			return;
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof ThreadMXBean) || !((ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+			System.err.printf(Locale.ROOT, "%-18s %-60s unsupported%n", name, params);
+			return;
+		}
+		ThreadMXBean threads = (ThreadMXBean) bean;
+		threads.setThreadAllocatedMemoryEnabled(true);
+		for (int i = 0; i < Math.max(1, warmup); i++)
+			body.run();
+		long id = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(id);
+		long bytes = body.run();
+		long allocated = threads.getThreadAllocatedBytes(id) - before;
+		Map<String, Object> r = new LinkedHashMap<String, Object>();
+		r.put("benchmark", name);
+		r.put("params", params);
+		r.put("bytes", bytes);
+		r.put("allocatedBytes", allocated);
+		r.put("limitBytes", ALLOC_LIMIT);
+		results.add(r);
+		System.err.printf(Locale.ROOT, "%-18s %-60s %10d B allocated%n", name, params, allocated);
+		if (allocated > ALLOC_LIMIT)
+			throw new IllegalStateException(name + " allocated " + allocated + " bytes, limit " + ALLOC_LIMIT);
+	}
+
+	/**
+	 * Metodo che esegue un job nel thread corrente e controlla che abbia finito.
+	 *
+	 * @param job job da eseguire
+	 */
+	private void runJob(ISplitter job) {
+		job.run();
+		if (job.getControl().isStopped())
+			throw new IllegalStateException("Job stopped");
+	}
+
+	/**
+	 * Metodo che copia un file con lo stesso ciclo di lettura posizionale degli
+	 * splitter, scrivendo su uno stream che scarta i byte.
+	 *
+	 * @param file   file da leggere
+	 * @param buffer dimensione del buffer
+	 * @return byte copiati
+	 * @throws IOException in caso di errore di lettura
+	 */
+	private static long positionalCopy(File file, int buffer) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(buffer);
+		OutputStream os = new NullOutputStream();
+		long done = 0;
+		try (FileChannel src = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long count = src.size();
+			while (done < count) {
+				buf.clear();
+				int nRead = src.read(buf, done);
+				if (nRead <= 0)
+					break;
+				os.write(buf.array(), 0, nRead);
+				done += nRead;
+			}
+		}
+		return done;
+	}
+
+	/**
+	 * Metodo che genera un file di input se non esiste gi&agrave; con la
+	 * dimensione giusta. Il file comprimibile &egrave; testo fatto di parole
+	 * ripetute, quello casuale non si comprime. Il seme &egrave; fisso, quindi gli
+	 * input sono uguali ad ogni esecuzione.
+	 *
+	 * @param file         file da generare
+	 * @param compressible true per il file comprimibile
+	 * @throws IOException in caso di errore di scrittura
+	 */
+	private void generate(File file, boolean compressible) throws IOException {
+		if (file.length() == size)
+			return;
+		Random rnd = new Random(compressible ? 1 : 2);
+		String[] words = { "split", "stitch", "part", "header", "cipher", "gzip", "queue", "job", "file", "bytes",
+				"federico", "progress", "\n" };
+		byte[] block = new byte[1024 * 1024];
+		try (OutputStream os = new FileOutputStream(file)) {
+			for (int written = 0; written < size; written += block.length) {
+				if (compressible) {
+					int pos = 0;
+					while (pos < block.length) {
+						byte[] w = (words[rnd.nextInt(words.length)] + " ").getBytes("UTF-8");
+						int n = Math.min(w.length, block.length - pos);
+						System.arraycopy(w, 0, block, pos, n);
+						pos += n;
+					}
+				} else
+					rnd.nextBytes(block);
+				os.write(block, 0, Math.min(block.length, size - written));
+			}
+		}
+	}
+
+	/**
+	 * Metodo che svuota (o crea) una cartella di lavoro.
+	 *
+	 * @param d cartella
+	 */
+	private static void clean(File d) {
+		File[] files = d.listFiles();
+		if (files != null)
+			for (File f : files)
+				f.delete();
+		d.mkdirs();
+	}
+
+	/**
+	 * Metodo che crea la mappa dei parametri di un benchmark da coppie nome,
+	 * valore.
+	 *
+	 * @param kv nomi e valori alternati
+	 * @return parametri in ordine
+	 */
+	private static Map<String, Object> params(Object... kv) {
+		Map<String, Object> p = new LinkedHashMap<String, Object>();
+		for (int i = 0; i + 1 < kv.length; i += 2)
+			p.put(String.valueOf(kv[i]), kv[i + 1]);
+		return p;
+	}
+
+	/**
+	 * Metodo che scrive i risultati in JSON, insieme alle informazioni sulla JVM e
+	 * sulla macchina.
+	 *
+	 * @param out stream su cui scrivere
+	 */
+	public void writeJson(PrintStream out) {
+		Map<String, Object> root = new LinkedHashMap<String, Object>();
+		root.put("java", System.getProperty("java.version"));
+		root.put("os", System.getProperty("os.name") + " " + System.getProperty("os.arch"));
+		root.put("cores", Runtime.getRuntime().availableProcessors());
+		root.put("inputBytes", size);
+		root.put("warmup", warmup);
+		root.put("results", results);
+		StringBuilder sb = new StringBuilder();
+		toJson(root, sb, "");
+		out.println(sb);
+		out.flush();
+	}
+
+	/**
+	 * Metodo ricorsivo che converte mappe, liste, numeri e stringhe in JSON.
+	 *
+	 * @param v      valore da convertire
+	 * @param sb     buffer di output
+	 * @param indent indentazione corrente
+	 */
+	private static void toJson(Object v, StringBuilder sb, String indent) {
+		if (v instanceof Map) {
+			sb.append("{");
+			String sep = "\n";
+			for (Map.Entry<?, ?> e : ((Map<?, ?>) v).entrySet()) {
+				sb.append(sep).append(indent).append("  ");
+				toJson(String.valueOf(e.getKey()), sb, indent + "  ");
+				sb.append(": ");
+				toJson(e.getValue(), sb, indent + "  ");
+				sep = ",\n";
+			}
+			sb.append("\n").append(indent).append("}");
+		} else if (v instanceof List) {
+			sb.append("[");
+			String sep = "\n";
+			for (Object o : (List<?>) v) {
+				sb.append(sep).append(indent).append("  ");
+				toJson(o, sb, indent + "  ");
+				sep = ",\n";
+			}
+			sb.append("\n").append(indent).append("]");
+		} else if (v instanceof Double)
+			sb.append(String.format(Locale.ROOT, "%.3f", (Double) v));
+		else if (v instanceof Number || v instanceof Boolean)
+			sb.append(v);
+		else {
+			sb.append('"');
+			for (char c : String.valueOf(v).toCharArray()) {
+				if (c == '"' || c == '\\')
+					sb.append('\\').append(c);
+				else if (c < 0x20)
+					sb.append(String.format("\\u%04x", (int) c));
+				else
+					sb.append(c);
+			}
+			sb.append('"');
+		}
+	}
+
+	/**
+	 * Stream che restituisce un numero fissato di byte senza leggerli da nessuna
+	 * parte e senza allocare.
+	 */
+	private static class ZeroInputStream extends InputStream {
+		private long remaining;
+
+		private ZeroInputStream(long length) {
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() {
+			if (remaining <= 0)
+				return -1;
+			remaining--;
+			return 0;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (remaining <= 0)
+				return -1;
+			int n = (int) Math.min(len, remaining);
+			remaining -= n;
+			return n;
+		}
+	}
+
+	/**
+	 * Stream che scarta tutti i byte scritti.
+	 */
+	private static class NullOutputStream extends OutputStream {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	}
+}
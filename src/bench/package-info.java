@@ -0,0 +1,13 @@
+/**
+* Il package bench contiene la suite di benchmark di FileSplitterPro2.
+* <p>
+* I benchmark misurano ciclo di copia, splitter, codec, cifratura, Header e stitcher su file sintetici
+* e scrivono i risultati in JSON, per confrontare le prestazioni tra una versione e l'altra. La suite
+* fallisce se i cicli di copia con i buffer del pool tornano ad allocare ad ogni blocco.
+* </p>
+*
+* @since 1.0
+* @author federico
+* @version 1.0
+*/
+package bench;
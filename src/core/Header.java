@@ -2,17 +2,23 @@ package core;
 
 /**
  * @author federico
- * Classe usata per salvare le informazioni di divisione nel primo file splittato come
- * oggetto serializzato. L'oggetto serializzato funge da header prima della
+ * Classe usata per salvare le informazioni di divisione in ogni file splittato. L'Header
+ * scritto in formato binario da services>HeaderService funge da header prima della
  * parte dati per ottenere immediatamente le informazioni di divisione senza
  * richiedere input all'utente nel pannello stitcher o conservando altri file
- * che spieghino le operazioni fatte.
+ * che spieghino le operazioni fatte. La classe resta Serializable per leggere
+ * gli Header serializzati dalle versioni precedenti, che erano scritti solo nella
+ * prima parte e non hanno l'identificativo della divisione.
  */
 public class Header implements java.io.Serializable {
 	private static final long serialVersionUID = -7720376217206323341L;
 	private int totParts, part;
 	private boolean compress, encrypt;
 	private String name;
+	private int codec; // 0 (gzip) negli Header scritti prima dei codec
+	private long setId; // 0 negli Header scritti solo nella prima parte
+	private long offset, length;
+	private int checksum; // CRC32C dei byte originali della parte, 0 se non registrato
 
 	/**
 	 * Costruttore della classe Header che inizializza gli attributi contenenti le
@@ -33,6 +39,45 @@ public class Header implements java.io.Serializable {
 		this.name = name;
 	}
 
+	/**
+	 * Costruttore della classe Header che salva anche il codec usato per comprimere
+	 * le parti.
+	 * 
+	 * @param totParts parti totali divisione indipendentemente dal metodo usato
+	 * @param part     parte corrente del file con questo Header
+	 * @param compress il file &egrave; stato compresso?
+	 * @param encrypt  il file &egrave; stato cifrato?
+	 * @param name     nome del file originale
+	 * @param codec    identificativo del codec di services>CodecService
+	 */
+	public Header(int totParts, int part, boolean compress, boolean encrypt, String name, int codec) {
+		this(totParts, part, compress, encrypt, name);
+		this.codec = codec;
+	}
+
+	/**
+	 * Costruttore della classe Header scritto in ogni parte, che descrive anche
+	 * l'intervallo del file originale contenuto nella parte.
+	 * 
+	 * @param totParts parti totali divisione indipendentemente dal metodo usato
+	 * @param part     parte corrente del file con questo Header
+	 * @param compress il file &egrave; stato compresso?
+	 * @param encrypt  il file &egrave; stato cifrato?
+	 * @param name     nome del file originale
+	 * @param codec    identificativo del codec di services>CodecService
+	 * @param setId    identificativo casuale comune a tutte le parti della
+	 *                 divisione
+	 * @param offset   posizione nel file originale del primo byte della parte
+	 * @param length   numero di byte del file originale contenuti nella parte
+	 */
+	public Header(int totParts, int part, boolean compress, boolean encrypt, String name, int codec, long setId,
+			long offset, long length) {
+		this(totParts, part, compress, encrypt, name, codec);
+		this.setId = setId;
+		this.offset = offset;
+		this.length = length;
+	}
+
 	/**
 	 * Getter del numero di parti totali
 	 * 
@@ -122,4 +167,94 @@ public class Header implements java.io.Serializable {
 	public void setName(String name) {
 		this.name = name;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Getter dell'identificativo del codec usato per comprimere le parti
+	 * 
+	 * @return attributo codec
+	 */
+	public int getCodec() {
+		return codec;
+	}
+
+	/**
+	 * Setter dell'identificativo del codec usato per comprimere le parti
+	 * 
+	 * @param codec identificativo del codec di services>CodecService
+	 */
+	public void setCodec(int codec) {
+		this.codec = codec;
+	}
+
+	/**
+	 * Getter dell'identificativo della divisione, uguale in tutte le parti
+	 * 
+	 * @return attributo setId, 0 se solo la prima parte ha l'Header
+	 */
+	public long getSetId() {
+		return setId;
+	}
+
+	/**
+	 * Setter dell'identificativo della divisione
+	 * 
+	 * @param setId identificativo casuale della divisione
+	 */
+	public void setSetId(long setId) {
+		this.setId = setId;
+	}
+
+	/**
+	 * Getter della posizione nel file originale del primo byte della parte
+	 * 
+	 * @return attributo offset
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Setter della posizione nel file originale del primo byte della parte
+	 * 
+	 * @param offset offset in byte
+	 */
+	public void setOffset(long offset) {
+		this.offset = offset;
+	}
+
+	/**
+	 * Getter del numero di byte del file originale contenuti nella parte
+	 * 
+	 * @return attributo length
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Setter del numero di byte del file originale contenuti nella parte
+	 * 
+	 * @param length lunghezza in byte
+	 */
+	public void setLength(long length) {
+		this.length = length;
+	}
+
+	/**
+	 * Getter del CRC32C dei byte originali contenuti nella parte
+	 * 
+	 * @return attributo checksum, 0 se non registrato
+	 */
+	public int getChecksum() {
+		return checksum;
+	}
+
+	/**
+	 * Setter del CRC32C dei byte originali contenuti nella parte
+	 * 
+	 * @param checksum CRC32C della parte
+	 */
+	public void setChecksum(int checksum) {
+		this.checksum = checksum;
+	}
+}
@@ -0,0 +1,47 @@
+package core;
+
+/**
+ * @author federico
+ * Interfaccia con cui il motore di divisione e ricompattazione comunica con chi lo usa: errori,
+ * richieste di password ed inizio/fine dei job. Splitter, stitcher e servizi dipendono solo da
+ * questa interfaccia, quindi possono essere usati senza Swing (batch, benchmark); nella gui
+ * l'adattatore &egrave; gui>MainPanel. I metodi vengono chiamati dai thread dei job, quindi
+ * un'implementazione grafica deve passare al thread della gui. L'avanzamento non viene
+ * notificato ad ogni blocco ma si legge quando serve con ISplitter.getProcessedBytes().
+ */
+public interface IJobListener {
+
+	/**
+	 * Metodo chiamato quando un job o un servizio incontra un errore.
+	 * 
+	 * @param err messaggio di errore
+	 */
+	public void printError(String err);
+
+	/**
+	 * Metodo chiamato quando serve la password per riunire un file cifrato.
+	 * 
+	 * @param file nome del file cifrato che richiede la password
+	 * @return password, null se l'utente rinuncia
+	 */
+	public String takePassword(String file);
+
+	/**
+	 * Metodo chiamato dallo scheduler quando un job inizia (o riprende dopo una
+	 * pausa).
+	 * 
+	 * @param job job avviato
+	 */
+	public default void jobStarted(ISplitter job) {
+	}
+
+	/**
+	 * Metodo chiamato dallo scheduler quando un job finisce, viene messo in pausa
+	 * o viene annullato.
+	 * 
+	 * @param job   job fermato
+	 * @param nanos durata dell'esecuzione in nanosecondi
+	 */
+	public default void jobFinished(ISplitter job, long nanos) {
+	}
+}
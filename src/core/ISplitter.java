@@ -16,20 +16,36 @@ public interface ISplitter {
 	public void run();
 
 	/**
-	 * Getter della dimensione da incrementare nella progress bar una volta
-	 * completata l'esecuzione
+	 * Getter del numero totale di byte che il job deve elaborare, usato per
+	 * calcolare avanzamento, velocit&agrave; e tempo rimanente. Non deve leggere
+	 * dal disco perch&eacute; viene chiamato dal timer della gui.
 	 * 
-	 * @return valore incremento
+	 * @return byte totali, -1 se non sono ancora noti
 	 */
-	public int getInc();
+	public long getTotalBytes();
 
 	/**
-	 * Setter della dimensione da incrementare nella progress bar una volta
-	 * completata l'esecuzione
+	 * Getter del numero di byte gi&agrave; elaborati dal job. Viene aggiornato dai
+	 * cicli di copia e pu&ograve; essere letto da qualsiasi thread.
 	 * 
-	 * @param inc incremento
+	 * @return byte elaborati
 	 */
-	public void setInc(int inc);
+	public long getProcessedBytes();
+
+	/**
+	 * Getter del controllo per mettere in pausa, riprendere o annullare il job
+	 * 
+	 * @return controllo del job
+	 */
+	public JobControl getControl();
+
+	/**
+	 * Getter del limitatore di banda del job, oltre al quale vale anche quello
+	 * globale di core>RateLimiter
+	 * 
+	 * @return limitatore del job
+	 */
+	public RateLimiter getRateLimiter();
 
 	/**
 	 * Getter del numero delle operazioni extra che un oggetto specializzato fa nel
@@ -0,0 +1,181 @@
+package core;
+
+import java.util.function.IntConsumer;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * @author federico
+ * Classe che permette di mettere in pausa, riprendere ed annullare un job in esecuzione. Il job
+ * chiama {@link #checkpoint()} ad ogni blocco copiato: se &egrave; stata chiesta una pausa o un
+ * annullamento viene lanciata una JobStoppedException e il job si ferma al confine del blocco.
+ * Un job in pausa lascia libero il suo posto nel core>JobScheduler e viene rimesso in coda da
+ * {@link #resume()}; alla ripresa le parti gi&agrave; finite non vengono riscritte.
+ * I job che leggono o scrivono pi&ugrave; parti insieme chiedono i thread in pi&ugrave; con
+ * {@link #acquireWorkers(int)}, cos&igrave; lo scheduler li conta nel limite dei dispositivi.
+ */
+public class JobControl {
+	private static final int RUNNING = 0, PAUSED = 1, CANCELLED = 2;
+	private volatile int state = RUNNING;
+	private volatile boolean stopped = false;
+	private Runnable onResume;
+	private volatile IntUnaryOperator borrowWorkers;
+	private volatile IntConsumer returnWorkers;
+
+	/**
+	 * Metodo che chiede di mettere in pausa il job al prossimo checkpoint.
+	 */
+	public void pause() {
+		synchronized (this) {
+			if (state == RUNNING)
+				state = PAUSED;
+		}
+	}
+
+	/**
+	 * Metodo che riprende un job in pausa rimettendolo in coda nello scheduler.
+	 */
+	public void resume() {
+		Runnable r;
+		synchronized (this) {
+			if (state != PAUSED)
+				return;
+			state = RUNNING;
+			r = onResume;
+			onResume = null;
+		}
+		if (r != null)
+			r.run();
+	}
+
+	/**
+	 * Metodo che annulla il job: al prossimo checkpoint il job si ferma e cancella
+	 * i file che ha scritto. Un job in pausa viene rimesso in coda solo per fare
+	 * pulizia.
+	 */
+	public void cancel() {
+		Runnable r;
+		synchronized (this) {
+			state = CANCELLED;
+			r = onResume;
+			onResume = null;
+		}
+		if (r != null)
+			r.run();
+	}
+
+	/**
+	 * Getter per sapere se &egrave; stata chiesta una pausa
+	 * 
+	 * @return true se in pausa
+	 */
+	public boolean isPaused() {
+		return state == PAUSED;
+	}
+
+	/**
+	 * Getter per sapere se il job &egrave; stato annullato
+	 * 
+	 * @return true se annullato
+	 */
+	public boolean isCancelled() {
+		return state == CANCELLED;
+	}
+
+	/**
+	 * Getter per sapere se l'ultima esecuzione del job si &egrave; fermata ad un
+	 * checkpoint invece di finire
+	 * 
+	 * @return true se il job si &egrave; fermato
+	 */
+	public boolean isStopped() {
+		return stopped;
+	}
+
+	/**
+	 * Metodo chiamato dai cicli di copia ad ogni blocco.
+	 * 
+	 * @throws JobStoppedException se &egrave; stata chiesta una pausa o un
+	 *                             annullamento
+	 */
+	public void checkpoint() throws JobStoppedException {
+		int s = state;
+		if (s != RUNNING) {
+			stopped = true;
+			throw new JobStoppedException(s == CANCELLED);
+		}
+	}
+
+	/**
+	 * Metodo che riporta il controllo nello stato iniziale prima di avviare la coda.
+	 */
+	public synchronized void reset() {
+		state = RUNNING;
+		stopped = false;
+		onResume = null;
+	}
+
+	/**
+	 * Metodo chiamato dallo scheduler all'inizio di ogni esecuzione del job.
+	 */
+	void begin() {
+		stopped = false;
+	}
+
+	/**
+	 * Metodo che chiede i thread con cui il job legge o scrive le parti insieme.
+	 * Il thread del job &egrave; gi&agrave; contato dallo scheduler nel limite dei
+	 * suoi dispositivi, gli altri vengono presi dai posti liberi sugli stessi
+	 * dispositivi senza aspettare; senza scheduler vengono concessi tutti.
+	 * 
+	 * @param wanted thread voluti, compreso quello del job
+	 * @return thread concessi, almeno 1; vanno restituiti con
+	 *         {@link #releaseWorkers(int)}
+	 */
+	public int acquireWorkers(int wanted) {
+		IntUnaryOperator borrow = borrowWorkers;
+		if (wanted <= 1 || borrow == null)
+			return Math.max(1, wanted);
+		return 1 + borrow.applyAsInt(wanted - 1);
+	}
+
+	/**
+	 * Metodo che restituisce i thread concessi da {@link #acquireWorkers(int)}.
+	 * 
+	 * @param workers thread concessi
+	 */
+	public void releaseWorkers(int workers) {
+		IntConsumer giveBack = returnWorkers;
+		if (workers > 1 && giveBack != null)
+			giveBack.accept(workers - 1);
+	}
+
+	/**
+	 * Setter delle azioni dello scheduler che prestano e riprendono i posti sui
+	 * dispositivi del job per i thread in pi&ugrave;.
+	 * 
+	 * @param borrow  azione che presta fino al numero di posti dato e restituisce
+	 *                quelli prestati
+	 * @param giveBack azione che riprende i posti prestati
+	 */
+	void setWorkerBudget(IntUnaryOperator borrow, IntConsumer giveBack) {
+		this.borrowWorkers = borrow;
+		this.returnWorkers = giveBack;
+	}
+
+	/**
+	 * Setter dell'azione che rimette in coda il job quando viene ripreso o
+	 * annullato. Se il job &egrave; gi&agrave; stato ripreso l'azione viene
+	 * eseguita subito.
+	 * 
+	 * @param r azione dello scheduler
+	 */
+	void setOnResume(Runnable r) {
+		synchronized (this) {
+			if (state == PAUSED) {
+				onResume = r;
+				return;
+			}
+		}
+		r.run();
+	}
+}
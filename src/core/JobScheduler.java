@@ -0,0 +1,368 @@
+package core;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author federico
+ * Classe che esegue i job della coda con due pool di thread limitati invece di un thread per
+ * job: i job che comprimono e/o cifrano (getExtraOperations() maggiore di 0) vanno nel pool CPU,
+ * grande quanto i core, mentre le semplici divisioni e ricompattazioni vanno nel pool I/O, con
+ * pochi thread per non far lavorare troppi job sugli stessi dischi. I job in pi&ugrave; aspettano
+ * in coda il proprio turno. Ogni job restituisce un CompletableFuture che si completa alla fine
+ * della sua esecuzione.
+ * Prima di entrare in un pool ogni job deve essere ammesso sui dispositivi (FileStore) del file
+ * sorgente e della cartella di destinazione: su ogni dispositivo possono lavorare al massimo
+ * {@link #getStoreLimit(FileStore)} job insieme (ad esempio 1 per un disco meccanico, 8 per un
+ * NVMe), mentre i job su dispositivi diversi restano in parallelo. I job non ammessi aspettano e
+ * vengono riprovati in ordine di arrivo ogni volta che un job finisce. I thread con cui un job
+ * legge o scrive pi&ugrave; parti insieme occupano anch'essi un posto sui suoi dispositivi (vedi
+ * core>JobControl.acquireWorkers()), cos&igrave; il limite vale per i flussi su ogni dispositivo e
+ * non solo per i job.
+ * Un job messo in pausa con core>JobControl libera il suo posto ed i suoi dispositivi e torna in
+ * coda quando viene ripreso; il future di un job annullato viene completato come cancellato.
+ */
+public class JobScheduler {
+	private static final int DEFAULT_IO_WORKERS = 2;
+	private static final int DEFAULT_STORE_LIMIT = 4;
+	private final ThreadPoolExecutor cpuPool;
+	private final ThreadPoolExecutor ioPool;
+	private final Map<FileStore, Integer> storeLimits = new HashMap<FileStore, Integer>();
+	private final Map<FileStore, Integer> storeActive = new HashMap<FileStore, Integer>();
+	private final LinkedList<PendingJob> pending = new LinkedList<PendingJob>();
+	private int defaultStoreLimit = DEFAULT_STORE_LIMIT;
+	private volatile IJobListener listener;
+
+	/**
+	 * Classe annidata che contiene un job in attesa di ammissione.
+	 */
+	private static class PendingJob {
+		private final ISplitter job;
+		private final Set<FileStore> stores;
+		private final CompletableFuture<Void> future = new CompletableFuture<Void>();
+
+		private PendingJob(ISplitter job, Set<FileStore> stores) {
+			this.job = job;
+			this.stores = stores;
+		}
+	}
+
+	/**
+	 * Costruttore della classe JobScheduler con un pool CPU grande quanto i core e
+	 * un pool I/O di {@value #DEFAULT_IO_WORKERS} thread.
+	 */
+	public JobScheduler() {
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_IO_WORKERS);
+	}
+
+	/**
+	 * Costruttore della classe JobScheduler con la dimensione dei pool scelta.
+	 * 
+	 * @param cpuWorkers numero di job che comprimono e/o cifrano eseguiti insieme
+	 * @param ioWorkers  numero di job senza operazioni extra eseguiti insieme
+	 */
+	public JobScheduler(int cpuWorkers, int ioWorkers) {
+		cpuPool = newPool("job-cpu", Math.max(1, cpuWorkers));
+		ioPool = newPool("job-io", Math.max(1, ioWorkers));
+	}
+
+	/**
+	 * Setter del listener a cui notificare inizio e fine di ogni esecuzione dei
+	 * job.
+	 * 
+	 * @param listener listener dei job, null per nessuno
+	 */
+	public void setListener(IJobListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Metodo privato che crea un pool di dimensione fissa con coda illimitata e
+	 * thread daemon, che vengono chiusi dopo un minuto senza job.
+	 */
+	private static ThreadPoolExecutor newPool(String name, int workers) {
+		AtomicInteger count = new AtomicInteger();
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), r -> {
+					Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				});
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	/**
+	 * Getter del numero di job CPU eseguiti insieme
+	 * 
+	 * @return dimensione pool CPU
+	 */
+	public int getCpuWorkers() {
+		return cpuPool.getMaximumPoolSize();
+	}
+
+	/**
+	 * Setter del numero di job CPU eseguiti insieme, vale anche per i job
+	 * gi&agrave; in coda
+	 * 
+	 * @param workers dimensione pool CPU
+	 */
+	public void setCpuWorkers(int workers) {
+		resize(cpuPool, workers);
+	}
+
+	/**
+	 * Getter del numero di job I/O eseguiti insieme
+	 * 
+	 * @return dimensione pool I/O
+	 */
+	public int getIoWorkers() {
+		return ioPool.getMaximumPoolSize();
+	}
+
+	/**
+	 * Setter del numero di job I/O eseguiti insieme, vale anche per i job
+	 * gi&agrave; in coda
+	 * 
+	 * @param workers dimensione pool I/O
+	 */
+	public void setIoWorkers(int workers) {
+		resize(ioPool, workers);
+	}
+
+	/**
+	 * Metodo privato che cambia la dimensione di un pool rispettando il vincolo
+	 * core &lt;= max di ThreadPoolExecutor.
+	 */
+	private static synchronized void resize(ThreadPoolExecutor pool, int workers) {
+		workers = Math.max(1, workers);
+		if (workers > pool.getMaximumPoolSize()) {
+			pool.setMaximumPoolSize(workers);
+			pool.setCorePoolSize(workers);
+		} else {
+			pool.setCorePoolSize(workers);
+			pool.setMaximumPoolSize(workers);
+		}
+	}
+
+	/**
+	 * Getter del numero massimo di job di default per ogni dispositivo
+	 * 
+	 * @return limite di default
+	 */
+	public synchronized int getDefaultStoreLimit() {
+		return defaultStoreLimit;
+	}
+
+	/**
+	 * Setter del numero massimo di job di default per ogni dispositivo, usato per i
+	 * dispositivi senza un limite impostato con {@link #setStoreLimit(String, int)}
+	 * 
+	 * @param limit limite di default
+	 */
+	public void setDefaultStoreLimit(int limit) {
+		synchronized (this) {
+			defaultStoreLimit = Math.max(1, limit);
+		}
+		dispatch();
+	}
+
+	/**
+	 * Getter del numero massimo di job che lavorano insieme su un dispositivo
+	 * 
+	 * @param store dispositivo
+	 * @return limite del dispositivo
+	 */
+	public synchronized int getStoreLimit(FileStore store) {
+		Integer limit = storeLimits.get(store);
+		return limit == null ? defaultStoreLimit : limit;
+	}
+
+	/**
+	 * Setter del numero massimo di job che lavorano insieme sul dispositivo che
+	 * contiene il path dato
+	 * 
+	 * @param path  path di un file o di una cartella sul dispositivo
+	 * @param limit limite del dispositivo (1 per i dischi meccanici)
+	 * @return false se il dispositivo del path non pu&ograve; essere letto
+	 */
+	public boolean setStoreLimit(String path, int limit) {
+		FileStore store = storeOf(path);
+		if (store == null)
+			return false;
+		synchronized (this) {
+			storeLimits.put(store, Math.max(1, limit));
+		}
+		dispatch();
+		return true;
+	}
+
+	/**
+	 * Metodo privato che restituisce il dispositivo di un path, null se non
+	 * esiste.
+	 */
+	private static FileStore storeOf(String path) {
+		try {
+			return path == null ? null : Files.getFileStore(Paths.get(path));
+		} catch (IOException | InvalidPathException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Metodo privato che ammette un job se tutti i suoi dispositivi hanno un posto
+	 * libero, occupandoli tutti insieme. Va chiamato con il lock dello scheduler.
+	 */
+	private boolean admit(Set<FileStore> stores) {
+		for (FileStore store : stores) {
+			Integer active = storeActive.get(store);
+			if (active != null && active >= getStoreLimit(store))
+				return false;
+		}
+		for (FileStore store : stores)
+			storeActive.merge(store, 1, Integer::sum);
+		return true;
+	}
+
+	/**
+	 * Metodo privato che libera i dispositivi di un job finito.
+	 */
+	private synchronized void leave(Set<FileStore> stores) {
+		leave(stores, 1);
+	}
+
+	/**
+	 * Metodo privato che libera count posti sui dispositivi dati. Va chiamato con
+	 * il lock dello scheduler.
+	 */
+	private void leave(Set<FileStore> stores, int count) {
+		for (FileStore store : stores)
+			if (storeActive.merge(store, -count, Integer::sum) <= 0)
+				storeActive.remove(store);
+	}
+
+	/**
+	 * Metodo privato che presta ad un job ammesso fino a wanted posti in
+	 * pi&ugrave; sui suoi dispositivi, quanti ne sono liberi su tutti, senza
+	 * aspettare.
+	 */
+	private synchronized int borrow(Set<FileStore> stores, int wanted) {
+		int free = wanted;
+		for (FileStore store : stores) {
+			Integer active = storeActive.get(store);
+			free = Math.min(free, getStoreLimit(store) - (active == null ? 0 : active));
+		}
+		free = Math.max(0, free);
+		if (free > 0)
+			for (FileStore store : stores)
+				storeActive.merge(store, free, Integer::sum);
+		return free;
+	}
+
+	/**
+	 * Metodo privato che riprende i posti prestati con
+	 * {@link #borrow(Set, int)} e prova ad ammettere i job in attesa.
+	 */
+	private void giveBack(Set<FileStore> stores, int count) {
+		synchronized (this) {
+			leave(stores, count);
+		}
+		dispatch();
+	}
+
+	/**
+	 * Metodo privato che manda ai pool, in ordine di arrivo, tutti i job in attesa
+	 * che possono essere ammessi.
+	 */
+	private void dispatch() {
+		List<PendingJob> ready = new ArrayList<PendingJob>();
+		synchronized (this) {
+			Iterator<PendingJob> it = pending.iterator();
+			while (it.hasNext()) {
+				PendingJob p = it.next();
+				if (admit(p.stores)) {
+					it.remove();
+					ready.add(p);
+				}
+			}
+		}
+		for (PendingJob p : ready) {
+			ThreadPoolExecutor pool = p.job.getExtraOperations() > 0 ? cpuPool : ioPool;
+			JobControl control = p.job.getControl();
+			control.setWorkerBudget(wanted -> borrow(p.stores, wanted), count -> giveBack(p.stores, count));
+			CompletableFuture.runAsync(() -> {
+				IJobListener l = listener;
+				control.begin();
+				if (l != null)
+					l.jobStarted(p.job);
+				long start = System.nanoTime();
+				try {
+					p.job.run();
+				} finally {
+					if (l != null)
+						l.jobFinished(p.job, System.nanoTime() - start);
+				}
+			}, pool).whenComplete((r, ex) -> {
+				leave(p.stores);
+				if (ex == null && control.isStopped() && control.isPaused()) {
+					// job in pausa: libera il posto e torna in coda quando viene ripreso
+					control.setOnResume(() -> {
+						synchronized (this) {
+							pending.add(p);
+						}
+						dispatch();
+					});
+					dispatch();
+					return;
+				}
+				dispatch();
+				if (ex != null)
+					p.future.completeExceptionally(ex);
+				else if (control.isStopped() && control.isCancelled())
+					p.future.cancel(false);
+				else
+					p.future.complete(null);
+			});
+		}
+	}
+
+	/**
+	 * Metodo che mette in coda un job nel pool adatto, appena i dispositivi del
+	 * file sorgente e della cartella di destinazione lo ammettono.
+	 * 
+	 * @param job job da eseguire
+	 * @return future che si completa alla fine del job, eccezionalmente se il job
+	 *         lancia un'eccezione non gestita o viene annullato
+	 */
+	public CompletableFuture<Void> submit(ISplitter job) {
+		Set<FileStore> stores = new LinkedHashSet<FileStore>();
+		FileStore source = storeOf(job.getSourceFilePath());
+		FileStore dest = storeOf(job.getDestFolderPath());
+		if (source != null)
+			stores.add(source);
+		if (dest != null)
+			stores.add(dest);
+		PendingJob p = new PendingJob(job, stores);
+		synchronized (this) {
+			pending.add(p);
+		}
+		dispatch();
+		return p.future;
+	}
+}
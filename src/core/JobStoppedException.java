@@ -0,0 +1,34 @@
+package core;
+
+import java.io.InterruptedIOException;
+
+/**
+ * @author federico
+ * Eccezione lanciata da {@link JobControl#checkpoint()} nei cicli di copia quando il job
+ * &egrave; stato messo in pausa o annullato. Estende InterruptedIOException cos&igrave; risale
+ * gli stessi percorsi degli errori di I/O, ma i job non la mostrano come errore.
+ */
+public class JobStoppedException extends InterruptedIOException {
+	private static final long serialVersionUID = 3016459270357421880L;
+	private final boolean cancelled;
+
+	/**
+	 * Costruttore della classe JobStoppedException.
+	 * 
+	 * @param cancelled true se il job &egrave; stato annullato, false se &egrave;
+	 *                  stato messo in pausa
+	 */
+	public JobStoppedException(boolean cancelled) {
+		super(cancelled ? "Job cancelled" : "Job paused");
+		this.cancelled = cancelled;
+	}
+
+	/**
+	 * Getter per sapere se il job &egrave; stato annullato
+	 * 
+	 * @return true se annullato, false se in pausa
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+}
@@ -0,0 +1,213 @@
+package core;
+
+/**
+ * @author federico
+ * Classe che descrive un'intera divisione: le informazioni comuni a tutte le parti
+ * con il checksum dell'intero file e, per ogni parte, il nome del file, l'intervallo
+ * del file originale che contiene, la dimensione su disco, la dimensione dopo la
+ * compressione e il checksum. Viene scritta da services>ManifestService in un piccolo
+ * file accanto alle parti, cos&igrave; chi ricompone o controlla la divisione
+ * pu&ograve; pianificare tutto con una sola lettura invece di aprire ogni parte.
+ */
+public class Manifest {
+	private final long setId;
+	private final String name;
+	private final boolean compress, encrypt;
+	private final int codec;
+	private final String[] files;
+	private final long[] offsets, lengths, stored, compressed;
+	private final int[] checksums;
+	private int fileChecksum;
+
+	/**
+	 * Costruttore della classe Manifest con le informazioni comuni a tutte le
+	 * parti; quelle delle singole parti si impostano con
+	 * {@link #setPart(int, String, long, long, long, long, int)}.
+	 *
+	 * @param setId    identificativo della divisione, lo stesso degli Header
+	 * @param name     nome del file originale
+	 * @param totParts parti totali della divisione
+	 * @param compress le parti sono compresse?
+	 * @param encrypt  le parti sono cifrate?
+	 * @param codec    identificativo del codec di services>CodecService
+	 */
+	public Manifest(long setId, String name, int totParts, boolean compress, boolean encrypt, int codec) {
+		this.setId = setId;
+		this.name = name;
+		this.compress = compress;
+		this.encrypt = encrypt;
+		this.codec = codec;
+		this.files = new String[totParts];
+		this.offsets = new long[totParts];
+		this.lengths = new long[totParts];
+		this.stored = new long[totParts];
+		this.compressed = new long[totParts];
+		this.checksums = new int[totParts];
+	}
+
+	/**
+	 * Setter delle informazioni di una parte
+	 *
+	 * @param part       numero della parte, da 1
+	 * @param file       nome del file della parte, senza cartella
+	 * @param offset     posizione nel file originale del primo byte della parte
+	 * @param length     numero di byte del file originale contenuti nella parte
+	 * @param stored     dimensione del file della parte, Header compreso
+	 * @param compressed numero di byte dopo la compressione (uguale a length se
+	 *                   la parte non &egrave; compressa)
+	 * @param checksum   checksum della parte, 0 se non calcolato
+	 */
+	public void setPart(int part, String file, long offset, long length, long stored, long compressed,
+			int checksum) {
+		this.files[part - 1] = file;
+		this.offsets[part - 1] = offset;
+		this.lengths[part - 1] = length;
+		this.stored[part - 1] = stored;
+		this.compressed[part - 1] = compressed;
+		this.checksums[part - 1] = checksum;
+	}
+
+	/**
+	 * Getter dell'identificativo della divisione
+	 *
+	 * @return attributo setId
+	 */
+	public long getSetId() {
+		return setId;
+	}
+
+	/**
+	 * Getter del nome del file originale
+	 *
+	 * @return attributo name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Getter del numero di parti totali
+	 *
+	 * @return numero di parti
+	 */
+	public int getTotParts() {
+		return files.length;
+	}
+
+	/**
+	 * Getter per sapere se le parti sono compresse
+	 *
+	 * @return attributo compress
+	 */
+	public boolean isCompress() {
+		return compress;
+	}
+
+	/**
+	 * Getter per sapere se le parti sono cifrate
+	 *
+	 * @return attributo encrypt
+	 */
+	public boolean isEncrypt() {
+		return encrypt;
+	}
+
+	/**
+	 * Getter dell'identificativo del codec
+	 *
+	 * @return attributo codec
+	 */
+	public int getCodec() {
+		return codec;
+	}
+
+	/**
+	 * Getter del nome del file di una parte
+	 *
+	 * @param part numero della parte
+	 * @return nome del file, senza cartella
+	 */
+	public String getFile(int part) {
+		return files[part - 1];
+	}
+
+	/**
+	 * Getter della posizione nel file originale del primo byte di una parte
+	 *
+	 * @param part numero della parte
+	 * @return offset in byte
+	 */
+	public long getOffset(int part) {
+		return offsets[part - 1];
+	}
+
+	/**
+	 * Getter del numero di byte del file originale contenuti in una parte
+	 *
+	 * @param part numero della parte
+	 * @return lunghezza in byte
+	 */
+	public long getLength(int part) {
+		return lengths[part - 1];
+	}
+
+	/**
+	 * Getter della dimensione del file di una parte
+	 *
+	 * @param part numero della parte
+	 * @return dimensione in byte, Header compreso
+	 */
+	public long getStoredLength(int part) {
+		return stored[part - 1];
+	}
+
+	/**
+	 * Getter del numero di byte di una parte dopo la compressione
+	 *
+	 * @param part numero della parte
+	 * @return lunghezza compressa in byte
+	 */
+	public long getCompressedLength(int part) {
+		return compressed[part - 1];
+	}
+
+	/**
+	 * Getter del checksum di una parte
+	 *
+	 * @param part numero della parte
+	 * @return checksum, 0 se non calcolato
+	 */
+	public int getChecksum(int part) {
+		return checksums[part - 1];
+	}
+
+	/**
+	 * Getter del CRC32C dell'intero file originale
+	 *
+	 * @return checksum, 0 se non calcolato
+	 */
+	public int getFileChecksum() {
+		return fileChecksum;
+	}
+
+	/**
+	 * Setter del CRC32C dell'intero file originale
+	 *
+	 * @param fileChecksum checksum combinato delle parti
+	 */
+	public void setFileChecksum(int fileChecksum) {
+		this.fileChecksum = fileChecksum;
+	}
+
+	/**
+	 * Getter della dimensione totale dei file delle parti
+	 *
+	 * @return somma delle dimensioni in byte
+	 */
+	public long getTotalStored() {
+		long total = 0;
+		for (long s : stored)
+			total += s;
+		return total;
+	}
+}
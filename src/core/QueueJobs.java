@@ -1,10 +1,10 @@
 package core;
 
 import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
 
 import javax.swing.table.DefaultTableModel;
 
-import gui.MainPanel;
 import services.HeaderService;
 import services.JobFactoryService;
 
@@ -17,17 +17,20 @@ import services.JobFactoryService;
  */
 public class QueueJobs {
 	private Vector<ISplitter> queueJobs = new Vector<ISplitter>();
-	private MainPanel main;
+	private Vector<CompletableFuture<Void>> jobFutures = new Vector<CompletableFuture<Void>>();
+	private JobScheduler scheduler = new JobScheduler();
+	private IJobListener main;
 
 	private boolean end = false;
 
 	/**
 	 * Costruttore della classe QueueJobs che inizializza l'attributo main.
 	 * 
-	 * @param main oggetto MainPanel usato per stampare gli errori
+	 * @param main listener che riceve gli errori e l'inizio/fine dei job
 	 */
-	public QueueJobs(MainPanel main) {
+	public QueueJobs(IJobListener main) {
 		this.main = main;
+		this.scheduler.setListener(main);
 	}
 
 	/**
@@ -39,6 +42,27 @@ public class QueueJobs {
 		return queueJobs;
 	}
 
+	/**
+	 * Getter dello scheduler che esegue i job, per configurare la dimensione dei
+	 * suoi pool
+	 * 
+	 * @return scheduler dei job
+	 */
+	public JobScheduler getScheduler() {
+		return scheduler;
+	}
+
+	/**
+	 * Getter del future di completamento di un job avviato con
+	 * {@link #startAll(DefaultTableModel)}
+	 * 
+	 * @param i posizione del job nella coda
+	 * @return future del job, null se il job non &egrave; stato avviato
+	 */
+	public CompletableFuture<Void> getJobFuture(int i) {
+		return i < jobFutures.size() ? jobFutures.get(i) : null;
+	}
+
 	/**
 	 * Getter dello stato di fine della coda.
 	 * 
@@ -91,8 +115,8 @@ public class QueueJobs {
 	 * @param password se viene cifrato, con quale password?
 	 * 
 	 * @return vettore contenente i dati da mettere nella tabella {tipo, file
-	 *         sorgente, cartella destinazione, parti, compressione, cifratura,
-	 *         password}
+	 *         sorgente, cartella destinazione, parti, compressione, cifratura ||
+	 *         password, avanzamento}
 	 */
 	public Vector<Object> addQueueSplitter(String sf, String df, int parts, boolean compress, boolean crypt,
 			String password) {
@@ -113,6 +137,7 @@ public class QueueJobs {
 			v.add(password);
 		else
 			v.add(crypt);
+		v.add("");
 		return v;
 	}
 
@@ -130,8 +155,8 @@ public class QueueJobs {
 	 * @param password se viene cifrato, con quale password?
 	 * 
 	 * @return vettore contenente i dati da mettere nella tabella {tipo, file
-	 *         sorgente, cartella destinazione, parti, bytes, compressione,
-	 *         cifratura, password}
+	 *         sorgente, cartella destinazione, parti + bytes, compressione,
+	 *         cifratura || password, avanzamento}
 	 */
 	public Vector<Object> addQueueSplitter(String sf, String df, int parts, String bytes, boolean compress,
 			boolean crypt, String password) {
@@ -152,6 +177,7 @@ public class QueueJobs {
 			v.add(password);
 		else
 			v.add(crypt);
+		v.add("");
 		return v;
 	}
 
@@ -164,7 +190,7 @@ public class QueueJobs {
 	 * @param df path cartella destinazione
 	 * 
 	 * @return vettore contenente i dati da mettere nella tabella {file sorgente,
-	 *         cartella destinazione, parti, compressione, cifratura || password}
+	 *         cartella destinazione, parti, compressione, cifratura, avanzamento}
 	 */
 	public Vector<Object> addQueueStitcher(String sf, String df) {
 		checkClear();
@@ -182,6 +208,38 @@ public class QueueJobs {
 				v.add((boolean) eData[3]);
 			} else
 				v.add((boolean) eData[3]);
+			v.add("");
+			return v;
+		}
+		return null;
+	}
+
+	/**
+	 * Metodo per aggiungere alla coda un job che controlla le parti di una
+	 * divisione senza riunirle. Come per addQueueStitcher() si occupa
+	 * services>HeaderService.extractDataFirst() di recuperare il Job dalla factory
+	 * e di aggiungerlo in coda; nella tabella la cartella di destinazione &egrave;
+	 * quella delle parti.
+	 * 
+	 * @param sf path della parte sorgente o del manifest
+	 * 
+	 * @return vettore contenente i dati da mettere nella tabella {tipo, file
+	 *         sorgente, cartella delle parti, parti, compressione, cifratura,
+	 *         avanzamento}
+	 */
+	public Vector<Object> addQueueVerifier(String sf) {
+		checkClear();
+
+		Object[] eData = null;
+		if ((eData = HeaderService.exctractDataFirst(-1, sf, null, true, main, queueJobs)) != null) {
+			Vector<Object> v = new Vector<Object>();
+			v.add("Verify");
+			v.add(sf);
+			v.add(queueJobs.lastElement().getDestFolderPath());
+			v.add((int) eData[0] + " of " + (int) eData[1]);
+			v.add((boolean) eData[2]);
+			v.add((boolean) eData[3]);
+			v.add("");
 			return v;
 		}
 		return null;
@@ -225,41 +283,106 @@ public class QueueJobs {
 	}
 
 	/**
-	 * Metodo per avviare contemporaneamente tutti i Thread ed aggiornare la
-	 * progress bar dei jobs. L'aggioramento della progress bar viene delegato ad
-	 * ogni thread che riceve un valore inc(incremento) ed una volta finito il suo
-	 * lavoro lo somma. Per sapere quanto un thread deve incrementare la progress
-	 * bar recupero il numero di operazioni che deve fare il job con
-	 * getExtraOperations() e calcolo l'incremento.
+	 * Metodo per avviare tutti i job. I job vengono messi in coda in
+	 * core>JobScheduler, che li esegue con un numero limitato di thread separando
+	 * i job CPU da quelli I/O. Ogni job conta i byte elaborati con
+	 * getProcessedBytes() e l'avanzamento viene mostrato da gui>ProgressTimer,
+	 * quindi i job non aggiornano mai la gui.
 	 * 
 	 * @param tableModel modello della tabella per aggiornamento dati
+	 * @return future che si completa quando tutti i job sono finiti
 	 */
-	public void startAll(DefaultTableModel tableModel) {
-		int queueSize = queueJobs.size();
-		int extraOperations = 0;
-		if (queueSize == 0)
+	public CompletableFuture<Void> startAll(DefaultTableModel tableModel) {
+		jobFutures.clear();
+		if (queueJobs.isEmpty()) {
 			main.printError("Please add some Jobs");
-		else {
-			// approssimazione della percentuale
-			for (int i = 0; i < queueSize; i++)
-				extraOperations += queueJobs.get(i).getExtraOperations();
-
-			// conto anche i passaggi intermedi
-			int inc = 100 / (queueSize + extraOperations);
-
-			// creo un thread per ogni job
-			Thread allJobs[] = new Thread[queueSize];
-			for (int i = 0; i < queueSize; i++) {
-				allJobs[i] = new Thread((Runnable) queueJobs.get(i));
-				if (i == (queueSize - 1))
-					queueJobs.get(i).setInc(inc + (100 % (queueSize + extraOperations)));
-				else
-					queueJobs.get(i).setInc(inc);
-			}
-
-			// avvio tutti i job
-			for (int i = 0; i < queueSize; i++)
-				allJobs[i].start();
+			return CompletableFuture.completedFuture(null);
+		}
+		// metto in coda tutti i job
+		for (int i = 0; i < queueJobs.size(); i++) {
+			queueJobs.get(i).getControl().reset();
+			jobFutures.add(scheduler.submit(queueJobs.get(i)));
 		}
+		return CompletableFuture.allOf(jobFutures.toArray(new CompletableFuture<?>[0]));
+	}
+
+	/**
+	 * Metodo per mettere in pausa un job avviato. Il job si ferma alla fine del
+	 * blocco che sta copiando e lascia il suo posto nello scheduler agli altri job
+	 * in coda.
+	 * 
+	 * @param i posizione del job nella coda
+	 */
+	public void pauseJob(int i) {
+		if (i >= 0 && i < queueJobs.size())
+			queueJobs.get(i).getControl().pause();
+	}
+
+	/**
+	 * Metodo per riprendere un job in pausa, che torna in fondo alla coda dello
+	 * scheduler e continua senza riscrivere le parti gi&agrave; finite.
+	 * 
+	 * @param i posizione del job nella coda
+	 */
+	public void resumeJob(int i) {
+		if (i >= 0 && i < queueJobs.size())
+			queueJobs.get(i).getControl().resume();
+	}
+
+	/**
+	 * Metodo per annullare un job avviato o in pausa. Il job si ferma alla fine
+	 * del blocco che sta copiando e cancella i file che ha scritto.
+	 * 
+	 * @param i posizione del job nella coda
+	 */
+	public void cancelJob(int i) {
+		if (i >= 0 && i < queueJobs.size())
+			queueJobs.get(i).getControl().cancel();
+	}
+
+	/**
+	 * Metodo per limitare la banda di un job, anche mentre &egrave; in
+	 * esecuzione.
+	 * 
+	 * @param i           posizione del job nella coda
+	 * @param mbPerSecond MB al secondo, 0 per nessun limite
+	 */
+	public void setJobRate(int i, double mbPerSecond) {
+		if (i >= 0 && i < queueJobs.size())
+			queueJobs.get(i).getRateLimiter().setRateMB(mbPerSecond);
+	}
+
+	/**
+	 * Metodo per limitare la banda totale di tutti i job, anche mentre sono in
+	 * esecuzione.
+	 * 
+	 * @param mbPerSecond MB al secondo, 0 per nessun limite
+	 */
+	public void setGlobalRate(double mbPerSecond) {
+		RateLimiter.getGlobal().setRateMB(mbPerSecond);
+	}
+
+	/**
+	 * Metodo per limitare il numero di job che lavorano insieme su ogni
+	 * dispositivo (ad esempio 1 per un disco meccanico, 8 per un NVMe), per i
+	 * dispositivi senza un limite impostato con {@link #setStoreLimit(String, int)}.
+	 * Vale anche per i job gi&agrave; in coda.
+	 * 
+	 * @param limit numero massimo di job per dispositivo
+	 */
+	public void setStoreLimit(int limit) {
+		scheduler.setDefaultStoreLimit(limit);
+	}
+
+	/**
+	 * Metodo per limitare il numero di job che lavorano insieme sul dispositivo
+	 * che contiene un path. Vale anche per i job gi&agrave; in coda.
+	 * 
+	 * @param path  path di un file o di una cartella sul dispositivo
+	 * @param limit numero massimo di job sul dispositivo
+	 * @return false se il dispositivo del path non pu&ograve; essere letto
+	 */
+	public boolean setStoreLimit(String path, int limit) {
+		return scheduler.setStoreLimit(path, limit);
 	}
 }
@@ -0,0 +1,109 @@
+package core;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author federico
+ * Limitatore di banda a token bucket usato dai cicli di copia dei job. Ogni job ha il suo
+ * limitatore e tutti i job passano anche da quello globale ({@link #getGlobal()}), quindi si
+ * possono limitare sia i singoli job che il totale. Il bucket contiene al massimo un decimo di
+ * secondo di token: un job limitato scrive a piccoli blocchi regolari invece di fare raffiche
+ * alla massima velocit&agrave; seguite da lunghe pause. Il limite si pu&ograve; cambiare mentre i
+ * job sono in esecuzione, 0 vuol dire nessun limite.
+ */
+public class RateLimiter {
+	private static final RateLimiter global = new RateLimiter();
+	private static final long MIN_CHUNK = 64 * 1024; // 64KB
+	private static final long MAX_SLEEP = 50; // ms, per controllare pausa e annullamento
+	private volatile long rate = 0;
+	private double tokens = 0;
+	private long last = System.nanoTime();
+
+	/**
+	 * Getter del limitatore condiviso da tutti i job
+	 * 
+	 * @return limitatore globale
+	 */
+	public static RateLimiter getGlobal() {
+		return global;
+	}
+
+	/**
+	 * Getter del limite di banda
+	 * 
+	 * @return byte al secondo, 0 se non limitato
+	 */
+	public long getRate() {
+		return rate;
+	}
+
+	/**
+	 * Setter del limite di banda, pu&ograve; essere cambiato in qualsiasi momento.
+	 * 
+	 * @param bytesPerSecond byte al secondo, 0 per nessun limite
+	 */
+	public synchronized void setRate(long bytesPerSecond) {
+		rate = Math.max(0, bytesPerSecond);
+		tokens = 0;
+		last = System.nanoTime();
+	}
+
+	/**
+	 * Setter del limite di banda in MB/s
+	 * 
+	 * @param mbPerSecond MB al secondo, 0 per nessun limite
+	 */
+	public void setRateMB(double mbPerSecond) {
+		setRate((long) (mbPerSecond * 1024 * 1024));
+	}
+
+	/**
+	 * Metodo che calcola la dimensione dei blocchi da copiare con questo limite:
+	 * con un limite attivo i blocchi non superano un ventesimo di secondo di
+	 * banda, cos&igrave; la copia resta regolare.
+	 * 
+	 * @param max dimensione massima del blocco senza limite
+	 * @return dimensione del blocco in byte
+	 */
+	public long chunkSize(long max) {
+		long r = rate;
+		return r == 0 ? max : Math.min(max, Math.max(MIN_CHUNK, r / 20));
+	}
+
+	/**
+	 * Metodo che consuma i token per i byte copiati ed aspetta se il bucket
+	 * &egrave; in debito. L'attesa viene fatta a intervalli brevi controllando il
+	 * job, quindi pausa e annullamento non aspettano la fine dell'attesa.
+	 * 
+	 * @param bytes   byte copiati
+	 * @param control controllo del job che copia, null se non c'&egrave;
+	 * @throws JobStoppedException se il job viene fermato durante l'attesa
+	 */
+	public void acquire(long bytes, JobControl control) throws JobStoppedException {
+		long waitNanos;
+		synchronized (this) {
+			long r = rate;
+			if (r == 0)
+				return;
+			long now = System.nanoTime();
+			double burst = Math.max(MIN_CHUNK, r / 10.0);
+			tokens = Math.min(burst, tokens + (now - last) * r / 1e9) - bytes;
+			last = now;
+			if (tokens >= 0)
+				return;
+			waitNanos = (long) (-tokens * 1e9 / r);
+		}
+		long deadline = System.nanoTime() + waitNanos;
+		long left;
+		while ((left = deadline - System.nanoTime()) > 0) {
+			if (control != null)
+				control.checkpoint();
+			try {
+				Thread.sleep(Math.min(MAX_SLEEP, TimeUnit.NANOSECONDS.toMillis(left) + 1));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+}
@@ -1,8 +1,10 @@
 /**
 * Il package core contiene il cuore pulsante di FileSplitterPro2.
 * <p> 
-* Al suo interno &egrave; presente la coda dei file da splittare/stitchare, l'oggetto Header per salvare 
-* le informazioni di divisione e l'interfaccia ISplitter comune a tutti gli oggetti in coda.
+* Al suo interno &egrave; presente la coda dei file da splittare/stitchare, lo scheduler che ne esegue i job,
+* l'oggetto Header per salvare le informazioni di divisione, l'interfaccia ISplitter comune a tutti gli
+* oggetti in coda e l'interfaccia IJobListener con cui il motore comunica errori e richieste di password
+* senza dipendere dalla gui.
 * </p>
 * 
 * @since 1.0
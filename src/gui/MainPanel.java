@@ -2,6 +2,7 @@ package gui;
 
 import java.awt.Dimension;
 import java.awt.GridLayout;
+import java.lang.reflect.InvocationTargetException;
 
 import javax.swing.BoxLayout;
 import javax.swing.JFrame;
@@ -12,16 +13,20 @@ import javax.swing.JPasswordField;
 import javax.swing.JProgressBar;
 import javax.swing.JTabbedPane;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
 
+import core.IJobListener;
 import core.QueueJobs;
 
 /**
  * @author federico
  * Pannello MainPanel usato come ContentPane principale dell'interfaccia grafica.
  * Il pannello MainPanel raccoglie tutti gli altri pannelli della gui e li dispone
- * nella finestra usando anche un JTabbedPane.
+ * nella finestra usando anche un JTabbedPane. Implementa core>IJobListener ed &egrave; l'unico
+ * punto in cui il motore tocca Swing: gli errori dei job vengono mostrati sul thread della gui
+ * senza bloccare il job, mentre la richiesta della password aspetta la risposta dell'utente.
  */
-public class MainPanel extends JPanel {
+public class MainPanel extends JPanel implements IJobListener {
 	private static final long serialVersionUID = 4708253356058497950L;
 	private QueueJobs qj;
 	private JFrame frame;
@@ -44,7 +49,7 @@ public class MainPanel extends JPanel {
 		TablePanel table = new TablePanel(this, qj);
 		SplitterPanel splitter = new SplitterPanel(this, qj, table.getTableModel());
 		StitcherPanel stitcher = new StitcherPanel(this, qj, table.getTableModel());
-		RunallPanel runAll = new RunallPanel(this, qj, table.getTableModel());
+		RunallPanel runAll = new RunallPanel(this, qj, table.getTableModel(), table.getTable());
 
 		/*
 		 * Aggiungo i pannelli Splitter e Stitcher come tab
@@ -75,11 +80,17 @@ public class MainPanel extends JPanel {
 
 	/**
 	 * Metodo che permette di stampare la stringa di input come popup di errore.
+	 * Se viene chiamato da un job il popup viene mostrato dal thread della gui e il
+	 * job continua senza aspettare la chiusura del popup.
 	 * 
 	 * @param err messaggio di errore
 	 */
+	@Override
 	public void printError(String err) {
-		JOptionPane.showMessageDialog(frame, err, "Error", JOptionPane.ERROR_MESSAGE);
+		if (SwingUtilities.isEventDispatchThread())
+			JOptionPane.showMessageDialog(frame, err, "Error", JOptionPane.ERROR_MESSAGE);
+		else
+			SwingUtilities.invokeLater(() -> printError(err));
 	}
 
 	/**
@@ -87,9 +98,22 @@ public class MainPanel extends JPanel {
 	 * finestra di dialogo.
 	 * 
 	 * @param file nome del file cifrato che richiede la password
-	 * @return password ricavata
+	 * @return password ricavata, null se l'utente annulla
 	 */
+	@Override
 	public String takePassword(String file) {
+		if (!SwingUtilities.isEventDispatchThread()) {
+			// chiamato da un job: la finestra va aperta dal thread della gui
+			String[] password = new String[1];
+			try {
+				SwingUtilities.invokeAndWait(() -> password[0] = takePassword(file));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (InvocationTargetException e) {
+				return null;
+			}
+			return password[0];
+		}
 		JPanel userPanel = new JPanel();
 		userPanel.setLayout(new GridLayout(2, 2));
 		JLabel passwordLbl = new JLabel("Password for file " + file + ":");
@@ -0,0 +1,133 @@
+package gui;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.Vector;
+
+import javax.swing.Timer;
+import javax.swing.table.DefaultTableModel;
+
+import core.ISplitter;
+import core.QueueJobs;
+
+/**
+ * @author federico
+ * Classe che pubblica l'avanzamento dei job sulla gui con un unico javax.swing.Timer. A
+ * intervalli fissi legge i byte elaborati da ogni job (contatori LongAdder aggiornati dai cicli
+ * di copia) e aggiorna sul thread della gui la colonna Progress della tabella e la barra di
+ * avanzamento con percentuale, velocit&agrave; e tempo rimanente. I job non toccano mai Swing.
+ */
+public class ProgressTimer implements ActionListener {
+	private static final int PERIOD = 250; // ms
+	private static final double SMOOTHING = 0.3; // peso dell'ultima misura della velocit&agrave;
+	private final MainPanel main;
+	private final QueueJobs qj;
+	private final DefaultTableModel tableModel;
+	private final Timer timer = new Timer(PERIOD, this);
+	private long lastTime, lastBytes;
+	private double rate;
+	private long[] jobLastBytes = new long[0];
+	private double[] jobRates = new double[0];
+
+	/**
+	 * Costruttore della classe ProgressTimer che inizializza gli attributi.
+	 * 
+	 * @param main       oggetto MainPanel che contiene la barra di avanzamento
+	 * @param qj         coda dei job
+	 * @param tableModel modello della tabella per aggiornamento dati
+	 */
+	public ProgressTimer(MainPanel main, QueueJobs qj, DefaultTableModel tableModel) {
+		this.main = main;
+		this.qj = qj;
+		this.tableModel = tableModel;
+	}
+
+	/**
+	 * Metodo che azzera le misure ed avvia il timer, va chiamato dal thread della
+	 * gui prima di avviare i job.
+	 */
+	public void start() {
+		int jobs = qj.getQueueJobs().size();
+		lastTime = System.nanoTime();
+		lastBytes = 0;
+		rate = 0;
+		jobLastBytes = new long[jobs];
+		jobRates = new double[jobs];
+		main.getJobState().setValue(0);
+		main.getJobState().setString(null);
+		timer.start();
+	}
+
+	/**
+	 * Metodo che ferma il timer e pubblica l'avanzamento finale, va chiamato dal
+	 * thread della gui alla fine dei job.
+	 */
+	public void stop() {
+		timer.stop();
+		publish();
+		main.getJobState().setString(null);
+	}
+
+	/**
+	 * Metodo chiamato dal timer sul thread della gui.
+	 * 
+	 * @param e evento del timer
+	 */
+	public void actionPerformed(ActionEvent e) {
+		publish();
+	}
+
+	/**
+	 * Metodo privato che legge i contatori dei job e aggiorna tabella e barra di
+	 * avanzamento. La velocit&agrave; &egrave; una media mobile esponenziale per
+	 * non far oscillare il tempo rimanente.
+	 */
+	private void publish() {
+		long now = System.nanoTime();
+		double seconds = Math.max(1e-3, (now - lastTime) / 1e9);
+		Vector<ISplitter> jobs = qj.getQueueJobs();
+		long total = 0, done = 0;
+		for (int i = 0; i < jobs.size(); i++) {
+			ISplitter job = jobs.get(i);
+			long jobTotal = Math.max(0, job.getTotalBytes()); // -1 finch&eacute; il job non l'ha calcolato
+			long jobDone = Math.min(job.getProcessedBytes(), jobTotal);
+			total += jobTotal;
+			done += jobDone;
+			if (i < jobLastBytes.length && i < tableModel.getRowCount()) {
+				double jobRate = (jobDone - jobLastBytes[i]) / seconds;
+				jobRates[i] = SMOOTHING * jobRate + (1 - SMOOTHING) * jobRates[i];
+				jobLastBytes[i] = jobDone;
+				String cell = (job.getTotalBytes() < 0 ? 0 : percent(jobDone, jobTotal)) + "%";
+				if (jobDone > 0 && jobDone < jobTotal)
+					cell += String.format(" - %.1f MB/s", jobRates[i] / (1024 * 1024));
+				if (!cell.equals(tableModel.getValueAt(i, TablePanel.PROGRESS_COLUMN)))
+					tableModel.setValueAt(cell, i, TablePanel.PROGRESS_COLUMN);
+			}
+		}
+		rate = SMOOTHING * ((done - lastBytes) / seconds) + (1 - SMOOTHING) * rate;
+		lastBytes = done;
+		lastTime = now;
+
+		int percent = percent(done, total);
+		main.getJobState().setValue(percent);
+		String eta = rate > 0 ? formatTime((long) ((total - done) / rate)) : "--:--";
+		main.getJobState()
+				.setString(String.format("%d%% - %.1f MB/s - ETA %s", percent, rate / (1024 * 1024), eta));
+	}
+
+	/**
+	 * Metodo privato che calcola la percentuale di avanzamento.
+	 */
+	private static int percent(long done, long total) {
+		return total <= 0 ? 100 : (int) (done * 100 / total);
+	}
+
+	/**
+	 * Metodo privato che formatta un tempo in secondi come mm:ss o hh:mm:ss.
+	 */
+	private static String formatTime(long seconds) {
+		if (seconds >= 3600)
+			return String.format("%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+		return String.format("%02d:%02d", seconds / 60, seconds % 60);
+	}
+}
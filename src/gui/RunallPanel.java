@@ -2,40 +2,110 @@ package gui;
 
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.function.IntConsumer;
 
 import javax.swing.JButton;
+import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JSpinner;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.JTable;
+import javax.swing.SwingUtilities;
 import javax.swing.table.DefaultTableModel;
 
 import core.QueueJobs;
 
 /**
  * @author federico
- * Pannello RunallPanel contenente il bottone per avviare tutti i job.
+ * Pannello RunallPanel contenente il bottone per avviare tutti i job e i bottoni per mettere in
+ * pausa, riprendere ed annullare i job selezionati nella tabella (tutti se non ne &egrave;
+ * selezionato nessuno). Il limite di banda in MB/s vale per tutti i job insieme e pu&ograve; essere
+ * cambiato anche mentre sono in esecuzione, come il numero di job che lavorano insieme su ogni disco.
  */
 public class RunallPanel extends JPanel {
 	private static final long serialVersionUID = 625660702987996642L;
-	private JButton start;
+	private JButton start, pause, resume, cancel;
+	private JSpinner maxRate, storeLimit;
 	private QueueJobs qj;
 	private DefaultTableModel tableModel;
+	private JTable table;
 	private MainPanel main;
+	private ProgressTimer progress;
 
 	/**
-	 * Costruttore della classe RunallPanel che inizializza gli attributi e crea il
-	 * bottone Start
+	 * Costruttore della classe RunallPanel che inizializza gli attributi e crea i
+	 * bottoni Start, Pause, Resume e Cancel, il limite di banda ed il limite di job
+	 * per disco
 	 * 
 	 * @param main       oggetto MainPanel usato per stampare gli errori
 	 * @param qj         coda dei job
 	 * @param tableModel modello della tabella per aggiornamento dati
+	 * @param table      tabella dei job, per leggere le righe selezionate
 	 */
-	public RunallPanel(MainPanel main, QueueJobs qj, DefaultTableModel tableModel) {
+	public RunallPanel(MainPanel main, QueueJobs qj, DefaultTableModel tableModel, JTable table) {
 		this.qj = qj;
 		this.tableModel = tableModel;
+		this.table = table;
 		this.main = main;
+		this.progress = new ProgressTimer(main, qj, tableModel);
 
 		start = new JButton("Start");
 		start.addActionListener(new Avvio());
 		this.add(start);
+
+		pause = new JButton("Pause");
+		pause.addActionListener(e -> forSelected(qj::pauseJob));
+		pause.setEnabled(false);
+		this.add(pause);
+
+		resume = new JButton("Resume");
+		resume.addActionListener(e -> forSelected(qj::resumeJob));
+		resume.setEnabled(false);
+		this.add(resume);
+
+		cancel = new JButton("Cancel");
+		cancel.addActionListener(e -> forSelected(qj::cancelJob));
+		cancel.setEnabled(false);
+		this.add(cancel);
+
+		maxRate = new JSpinner(new SpinnerNumberModel(0, 0, 100000, 10));
+		maxRate.addChangeListener(e -> qj.setGlobalRate((Integer) maxRate.getValue()));
+		this.add(new JLabel("MB/s (0 = no limit)"));
+		this.add(maxRate);
+
+		storeLimit = new JSpinner(new SpinnerNumberModel(qj.getScheduler().getDefaultStoreLimit(), 1, 64, 1));
+		storeLimit.addChangeListener(e -> qj.setStoreLimit((Integer) storeLimit.getValue()));
+		this.add(new JLabel("jobs per disk"));
+		this.add(storeLimit);
+	}
+
+	/**
+	 * Metodo che esegue un'azione sui job selezionati nella tabella, oppure su
+	 * tutti i job se non ci sono righe selezionate.
+	 * 
+	 * @param action azione da eseguire con la posizione del job nella coda
+	 */
+	private void forSelected(IntConsumer action) {
+		int[] rows = table.getSelectedRows();
+		if (rows.length == 0)
+			for (int i = 0; i < qj.getQueueJobs().size(); i++)
+				action.accept(i);
+		else
+			for (int row : rows)
+				action.accept(table.convertRowIndexToModel(row));
+	}
+
+	/**
+	 * Metodo che abilita i bottoni Pause, Resume e Cancel solo mentre i job sono in
+	 * esecuzione.
+	 * 
+	 * @param running true se i job sono in esecuzione
+	 */
+	private void setRunning(boolean running) {
+		start.setEnabled(!running);
+		pause.setEnabled(running);
+		resume.setEnabled(running);
+		cancel.setEnabled(running);
 	}
 
 	/**
@@ -44,17 +114,21 @@ public class RunallPanel extends JPanel {
 	 */
 	private class Avvio implements ActionListener {
 		/**
-		 * Metodo che alla pressione del pulsante Start resetta la progress bar,
-		 * disabilita il bottone Start, avvia tutti i job e riabilita il bottone Start.
+		 * Metodo che alla pressione del pulsante Start disabilita il bottone Start,
+		 * avvia il timer dell'avanzamento e tutti i job e, quando sono finiti o
+		 * annullati, ferma il timer e riabilita il bottone Start, senza bloccare il
+		 * thread della gui.
 		 * 
 		 * @param e Evento pressione pulsante Start
 		 */
 		public void actionPerformed(ActionEvent e) {
-			main.getJobState().setValue(0);
-			start.setEnabled(false);
-			qj.startAll(tableModel);
-			start.setEnabled(true);
-			qj.setEnd(true);
+			setRunning(true);
+			progress.start();
+			qj.startAll(tableModel).whenComplete((r, ex) -> SwingUtilities.invokeLater(() -> {
+				progress.stop();
+				setRunning(false);
+				qj.setEnd(true);
+			}));
 		}
 	}
-}
\ No newline at end of file
+}
@@ -54,9 +54,9 @@ public class StitcherPanel extends JPanel {
 		/** Imposto il layout del pannello */
 		GridBagLayout gridBagLayout = new GridBagLayout();
 		gridBagLayout.columnWidths = new int[] { 152, 199, 89, 104, 0 };
-		gridBagLayout.rowHeights = new int[] { 25, 25, 25, 25 };
+		gridBagLayout.rowHeights = new int[] { 25, 25, 25, 25, 25 };
 		gridBagLayout.columnWeights = new double[] { 0.0, 0.0, 0.0, 1.0, Double.MIN_VALUE };
-		gridBagLayout.rowWeights = new double[] { 0.0, 0.0, 0.0, 0.0 };
+		gridBagLayout.rowWeights = new double[] { 0.0, 0.0, 0.0, 0.0, 0.0 };
 		setLayout(gridBagLayout);
 
 		// area selezione sorgente / destinazione
@@ -149,6 +149,17 @@ public class StitcherPanel extends JPanel {
 		} catch (Exception e) {
 			main.printError("add.png icon not found");
 		}
+
+		/** Creo il pulsante per controllare le parti senza riunirle */
+		JButton verifyB = new JButton("Verify parts only");
+		verifyB.addActionListener(new VerifyPart());
+		GridBagConstraints gbc_verifyB = new GridBagConstraints();
+		gbc_verifyB.gridwidth = 4;
+		gbc_verifyB.fill = GridBagConstraints.HORIZONTAL;
+		gbc_verifyB.insets = new Insets(0, 0, 5, 5);
+		gbc_verifyB.gridx = 0;
+		gbc_verifyB.gridy = 4;
+		add(verifyB, gbc_verifyB);
 	}
 
 	/**
@@ -228,4 +239,35 @@ public class StitcherPanel extends JPanel {
 		}
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Classe annidata non accessibile dall'esterno per gestire il pulsante Verify
+	 * che aggiunge alla coda il controllo delle parti senza riunirle.
+	 */
+	private class VerifyPart implements ActionListener {
+		/**
+		 * Metodo che alla pressione del pulsante Verify controlla che il file
+		 * sorgente sia valido e chiama il metodo core>QueueJobs.addQueueVerifier(); la
+		 * cartella di destinazione non serve perch&eacute; non viene scritto nessun
+		 * file.
+		 * 
+		 * @param e Evento pressione pulsante Verify
+		 */
+		public void actionPerformed(ActionEvent e) {
+			if (sourceFilePath.getText().equals("") || new File(sourceFilePath.getText()).exists() == false)
+				main.printError("Please insert a valid file path");
+			else {
+				// pulisce la tabella se i job sono gi&agrave; stati eseguiti
+				if (qj.isEnd()) {
+					for (int i = 0; i < tableModel.getRowCount(); i++)
+						tableModel.removeRow(i);
+					main.getJobState().setValue(0);
+				}
+
+				Vector<Object> v = qj.addQueueVerifier(sourceFilePath.getText());
+				if (v != null)
+					tableModel.addRow(v);
+			}
+		}
+	}
+
+}
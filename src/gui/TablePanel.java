@@ -40,6 +40,8 @@ import services.JobFactoryService;
  */
 public class TablePanel extends JPanel {
 	private static final long serialVersionUID = -4132585684525492535L;
+	/** colonna con l'avanzamento dei job, aggiornata da gui>ProgressTimer */
+	public static final int PROGRESS_COLUMN = 6;
 	private MainPanel main;
 	private QueueJobs qj;
 	private JTable queueJobsTable;
@@ -73,12 +75,15 @@ public class TablePanel extends JPanel {
 			 * che identificano un file da dividere sono tutte editabili tranne la prima che
 			 * lo identifica come "File" appunto. Le celle che identificano un file da unire
 			 * non sono editabili perche&grave; i dati sono gi&agrave; stati raccolti dall'Header e
-			 * perderebbe di coerenza questa modifica.
+			 * perderebbe di coerenza questa modifica, lo stesso vale per i controlli delle parti.
 			 * 
 			 * @param e Evento pressione pulsante Find
 			 */
 			public boolean isCellEditable(int row, int column) {
-				if (getValueAt(row, 0) == "Parts" && column != (getColumnCount() - 1))
+				if ((getValueAt(row, 0) == "Parts" || getValueAt(row, 0) == "Verify")
+						&& column != (getColumnCount() - 1))
+					return false;
+				else if (column == PROGRESS_COLUMN)
 					return false;
 				else if (column == 0)
 					return false;
@@ -92,6 +97,7 @@ public class TablePanel extends JPanel {
 		tableModel.addColumn("Parts");
 		tableModel.addColumn("Compression");
 		tableModel.addColumn("Encryption");
+		tableModel.addColumn("Progress");
 		tableModel.addColumn("Remove");
 		tableModel.addTableModelListener(new TableChange());
 		queueJobsTable = new JTable(tableModel);
@@ -120,6 +126,15 @@ public class TablePanel extends JPanel {
 		return tableModel;
 	}
 
+	/**
+	 * Getter della tabella dei job, per sapere quali righe sono selezionate
+	 * 
+	 * @return tabella dei job
+	 */
+	public JTable getTable() {
+		return queueJobsTable;
+	}
+
 	/**
 	 * Classe annidata non accessibile dall'esterno per gestire il tasto
 	 * DEL[immagine (X)] per rimuovere il job dalla coda.
@@ -253,6 +268,8 @@ public class TablePanel extends JPanel {
 				int row = e.getFirstRow();
 				int col = e.getColumn();
 				boolean edited = false;
+				if (col == PROGRESS_COLUMN)
+					return;
 
 				Object val = ((DefaultTableModel) e.getSource()).getValueAt(row, col);
 
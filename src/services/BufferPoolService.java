@@ -0,0 +1,79 @@
+package services;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author federico
+ * Classe che espone il servizio di riuso dei buffer usati dai cicli di copia. Invece di
+ * allocare un nuovo array per ogni blocco letto, ogni copia prende in prestito un buffer
+ * dal pool con {@link #lease(boolean)} e lo restituisce con {@link #release(ByteBuffer)}
+ * una volta finita, cos&igrave; a regime i cicli di copia non allocano memoria.
+ */
+public class BufferPoolService {
+	private static final int BUFFER_SIZE = 64 * 1024; // 64KB
+	private static final int MAX_POOLED = 64;
+	private static final ConcurrentLinkedQueue<ByteBuffer> heapBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
+	private static final ConcurrentLinkedQueue<ByteBuffer> directBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
+	private static final AtomicInteger heapPooled = new AtomicInteger();
+	private static final AtomicInteger directPooled = new AtomicInteger();
+
+	/**
+	 * Getter della dimensione dei buffer del pool
+	 *
+	 * @return dimensione buffer in byte
+	 */
+	public static int getBufferSize() {
+		return BUFFER_SIZE;
+	}
+
+	/**
+	 * Metodo che prende in prestito un buffer dal pool, se il pool &egrave; vuoto
+	 * ne viene allocato uno nuovo. I buffer heap hanno sempre un array
+	 * accessibile con array().
+	 *
+	 * @param direct true per un buffer diretto (fuori dallo heap), false per un
+	 *               buffer heap
+	 * @return buffer pulito di {@link #getBufferSize()} byte
+	 */
+	public static ByteBuffer lease(boolean direct) {
+		ByteBuffer buffer;
+		if (direct) {
+			buffer = directBuffers.poll();
+			if (buffer == null)
+				return ByteBuffer.allocateDirect(BUFFER_SIZE);
+			directPooled.decrementAndGet();
+		} else {
+			buffer = heapBuffers.poll();
+			if (buffer == null)
+				return ByteBuffer.allocate(BUFFER_SIZE);
+			heapPooled.decrementAndGet();
+		}
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Metodo che restituisce al pool un buffer preso con {@link #lease(boolean)}.
+	 * Se il pool &egrave; gi&agrave; pieno il buffer viene lasciato al garbage
+	 * collector.
+	 *
+	 * @param buffer buffer da restituire
+	 */
+	public static void release(ByteBuffer buffer) {
+		if (buffer == null || buffer.capacity() != BUFFER_SIZE)
+			return;
+		if (buffer.isDirect()) {
+			if (directPooled.incrementAndGet() <= MAX_POOLED)
+				directBuffers.offer(buffer);
+			else
+				directPooled.decrementAndGet();
+		} else {
+			if (heapPooled.incrementAndGet() <= MAX_POOLED)
+				heapBuffers.offer(buffer);
+			else
+				heapPooled.decrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * @author federico
+ * Classe che espone il servizio dei checksum delle parti. Ogni parte ha il CRC32C dei byte
+ * originali che contiene, calcolato mentre la parte viene scritta e controllato mentre viene
+ * ricomposta (CRC32C usa le istruzioni dedicate del processore quando ci sono). Il CRC32C
+ * dell'intero file si ottiene combinando quelli delle parti con
+ * {@link #combine(int, int, long)}, senza rileggere il file. Un checksum 0 indica che non
+ * &egrave; stato registrato.
+ */
+public class ChecksumService {
+	private static final int CRC32C_POLY = 0x82F63B78; // polinomio riflesso
+
+	/**
+	 * Metodo che crea un nuovo checksum per una parte
+	 *
+	 * @return checksum CRC32C vuoto
+	 */
+	public static Checksum newChecksum() {
+		return new CRC32C();
+	}
+
+	/**
+	 * Metodo che copia un intervallo di un file letto in modo posizionale sul
+	 * canale di destinazione aggiornando il checksum in un solo passaggio: ogni
+	 * blocco viene letto in un buffer diretto preso in prestito da
+	 * services>BufferPoolService, aggiunto al checksum e scritto dallo stesso
+	 * buffer, invece di trasferirlo con FileChannel.transferTo() e poi rileggerlo.
+	 *
+	 * @param crc      checksum da aggiornare
+	 * @param src      canale del file sorgente
+	 * @param position posizione del primo byte
+	 * @param count    numero di byte
+	 * @param dest     canale su cui scrivere i byte dalla sua posizione corrente
+	 * @return byte copiati, meno di count se il file sorgente finisce prima
+	 * @throws IOException in caso di errore di lettura/scrittura
+	 */
+	public static long copy(Checksum crc, FileChannel src, long position, long count, FileChannel dest)
+			throws IOException {
+		ByteBuffer buffer = BufferPoolService.lease(true);
+		try {
+			long done = 0;
+			while (done < count) {
+				buffer.clear();
+				buffer.limit((int) Math.min(buffer.capacity(), count - done));
+				int nRead = src.read(buffer, position + done);
+				if (nRead <= 0)
+					break;
+				buffer.flip();
+				crc.update(buffer);
+				buffer.rewind(); // il checksum ha consumato il buffer, che va ancora scritto
+				while (buffer.hasRemaining())
+					dest.write(buffer);
+				done += nRead;
+			}
+			return done;
+		} finally {
+			BufferPoolService.release(buffer);
+		}
+	}
+
+	/**
+	 * Metodo che calcola il CRC32C della concatenazione di due blocchi conoscendo
+	 * solo i loro CRC32C e la lunghezza del secondo, come crc32_combine() di zlib:
+	 * il CRC del primo blocco viene fatto avanzare di len2 byte a zero con una
+	 * matrice sul campo GF(2) elevata al quadrato ad ogni bit di len2.
+	 *
+	 * @param crc1 CRC32C del primo blocco
+	 * @param crc2 CRC32C del secondo blocco
+	 * @param len2 lunghezza in byte del secondo blocco
+	 * @return CRC32C dei due blocchi concatenati
+	 */
+	public static int combine(int crc1, int crc2, long len2) {
+		if (len2 <= 0)
+			return crc1;
+		int[] even = new int[32], odd = new int[32];
+		odd[0] = CRC32C_POLY; // operatore per un bit a zero
+		int row = 1;
+		for (int n = 1; n < 32; n++) {
+			odd[n] = row;
+			row <<= 1;
+		}
+		gf2MatrixSquare(even, odd); // due bit a zero
+		gf2MatrixSquare(odd, even); // quattro bit a zero
+		do {
+			gf2MatrixSquare(even, odd); // un byte a zero la prima volta
+			if ((len2 & 1) != 0)
+				crc1 = gf2MatrixTimes(even, crc1);
+			len2 >>>= 1;
+			if (len2 == 0)
+				break;
+			gf2MatrixSquare(odd, even);
+			if ((len2 & 1) != 0)
+				crc1 = gf2MatrixTimes(odd, crc1);
+			len2 >>>= 1;
+		} while (len2 != 0);
+		return crc1 ^ crc2;
+	}
+
+	/**
+	 * Metodo che moltiplica una matrice 32x32 sul campo GF(2) per un vettore.
+	 *
+	 * @param mat matrice, una colonna per elemento
+	 * @param vec vettore
+	 * @return prodotto
+	 */
+	private static int gf2MatrixTimes(int[] mat, int vec) {
+		int sum = 0;
+		for (int i = 0; vec != 0; i++, vec >>>= 1)
+			if ((vec & 1) != 0)
+				sum ^= mat[i];
+		return sum;
+	}
+
+	/**
+	 * Metodo che eleva al quadrato una matrice 32x32 sul campo GF(2).
+	 *
+	 * @param square matrice risultato
+	 * @param mat    matrice da elevare al quadrato
+	 */
+	private static void gf2MatrixSquare(int[] square, int[] mat) {
+		for (int n = 0; n < 32; n++)
+			square[n] = gf2MatrixTimes(mat, mat[n]);
+	}
+}
@@ -0,0 +1,75 @@
+package services;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author federico
+ * Classe che espone il registro dei codec di compressione. Lo splitter sceglie il codec per
+ * nome, mentre lo stitcher lo recupera dall'identificativo salvato nell'Header; gli Header
+ * scritti prima dei codec non hanno l'identificativo e valgono come {@link #GZIP}.
+ */
+public class CodecService {
+	public static final int GZIP = 0;
+	public static final int DEFLATE = 1;
+	public static final int LZ = 2;
+	public static final int DEFAULT_LEVEL = -1;
+	private static final ICodec[] codecs = { new GzipCodec(), new DeflateCodec(), new LzCodec() };
+
+	/**
+	 * Getter del codec di default (gzip)
+	 * 
+	 * @return codec gzip
+	 */
+	public static ICodec getDefault() {
+		return codecs[GZIP];
+	}
+
+	/**
+	 * Metodo che restituisce il codec con l'identificativo salvato nell'Header
+	 * 
+	 * @param id identificativo codec
+	 * @return codec, null se l'identificativo non &egrave; conosciuto
+	 */
+	public static ICodec getCodec(int id) {
+		for (ICodec c : codecs)
+			if (c.getId() == id)
+				return c;
+		return null;
+	}
+
+	/**
+	 * Metodo che restituisce il codec con il nome dato (gzip, deflate, lz)
+	 * 
+	 * @param name nome codec, non distingue maiuscole e minuscole
+	 * @return codec, null se il nome non &egrave; conosciuto
+	 */
+	public static ICodec getCodec(String name) {
+		for (ICodec c : codecs)
+			if (c.getName().equalsIgnoreCase(name))
+				return c;
+		return null;
+	}
+
+	/**
+	 * Getter dei nomi di tutti i codec disponibili
+	 * 
+	 * @return lista nomi
+	 */
+	public static List<String> getNames() {
+		List<String> names = new ArrayList<String>();
+		for (ICodec c : codecs)
+			names.add(c.getName());
+		return names;
+	}
+
+	/**
+	 * Metodo che controlla che il livello di compressione sia valido
+	 * 
+	 * @param level livello da controllare
+	 * @return true se il livello &egrave; tra 1 e 9 oppure {@link #DEFAULT_LEVEL}
+	 */
+	public static boolean isValidLevel(int level) {
+		return level == DEFAULT_LEVEL || (level >= 1 && level <= 9);
+	}
+}
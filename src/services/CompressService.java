@@ -0,0 +1,104 @@
+package services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.Deflater;
+
+/**
+ * @author federico
+ * Classe che espone il servizio di stima della comprimibilit&agrave; di un file. Prima di
+ * comprimere un file vengono controllati i magic byte dei formati gi&agrave; compressi (immagini,
+ * video, archivi) e vengono compressi alcuni blocchi di campione: se il guadagno &egrave; troppo
+ * basso il file viene diviso senza compressione, risparmiando CPU ed evitando parti pi&ugrave;
+ * grandi dell'originale.
+ */
+public class CompressService {
+	private static final int SAMPLE_SIZE = 64 * 1024; // 64KB
+	private static final int SAMPLES = 4;
+	private static final double MIN_GAIN = 0.05; // almeno il 5% in meno
+
+	/** magic byte dei formati gi&agrave; compressi: {offset, byte...} */
+	private static final int[][] COMPRESSED_MAGICS = {
+			{ 0, 0xFF, 0xD8, 0xFF }, // JPEG
+			{ 0, 0x89, 'P', 'N', 'G' }, // PNG
+			{ 0, 'G', 'I', 'F', '8' }, // GIF
+			{ 0, 'P', 'K', 0x03, 0x04 }, // ZIP, JAR, DOCX, APK
+			{ 0, 0x1F, 0x8B }, // GZIP
+			{ 0, 'B', 'Z', 'h' }, // BZIP2
+			{ 0, 0xFD, '7', 'z', 'X', 'Z', 0x00 }, // XZ
+			{ 0, '7', 'z', 0xBC, 0xAF, 0x27, 0x1C }, // 7Z
+			{ 0, 'R', 'a', 'r', '!' }, // RAR
+			{ 0, 0x28, 0xB5, 0x2F, 0xFD }, // ZSTD
+			{ 4, 'f', 't', 'y', 'p' }, // MP4, MOV, HEIC
+			{ 0, 0x1A, 0x45, 0xDF, 0xA3 }, // MKV, WEBM
+			{ 0, 'I', 'D', '3' }, // MP3
+			{ 0, 'O', 'g', 'g', 'S' }, // OGG
+			{ 0, 'f', 'L', 'a', 'C' }, // FLAC
+			{ 8, 'W', 'E', 'B', 'P' } // WEBP
+	};
+
+	/**
+	 * Metodo che controlla se l'inizio del file corrisponde ad un formato
+	 * gi&agrave; compresso.
+	 *
+	 * @param head primi byte del file
+	 * @return true se il formato &egrave; gi&agrave; compresso
+	 */
+	private static boolean hasCompressedMagic(ByteBuffer head) {
+		for (int[] magic : COMPRESSED_MAGICS) {
+			int offset = magic[0];
+			if (head.limit() < offset + magic.length - 1)
+				continue;
+			boolean match = true;
+			for (int i = 1; i < magic.length && match; i++)
+				match = (head.get(offset + i - 1) & 0xFF) == magic[i];
+			if (match)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Metodo che stima se vale la pena comprimere un file. Il file non viene
+	 * compresso se inizia con i magic byte di un formato gi&agrave; compresso
+	 * oppure se {@value #SAMPLES} blocchi di campione distribuiti nel file,
+	 * compressi con il livello pi&ugrave; veloce, non guadagnano almeno il 5%.
+	 *
+	 * @param src  canale del file sorgente
+	 * @param size dimensione del file
+	 * @return true se conviene comprimere
+	 * @throws IOException in caso di errore di lettura
+	 */
+	public static boolean isWorthCompressing(FileChannel src, long size) throws IOException {
+		if (size == 0)
+			return false;
+		ByteBuffer sample = ByteBuffer.allocate((int) Math.min(SAMPLE_SIZE, size));
+		src.read(sample, 0);
+		sample.flip();
+		if (hasCompressedMagic(sample))
+			return false;
+
+		Deflater def = new Deflater(Deflater.BEST_SPEED, true);
+		byte[] out = new byte[SAMPLE_SIZE + 1024];
+		long in = 0, compressed = 0;
+		try {
+			for (int s = 0; s < SAMPLES; s++) {
+				long position = (size - sample.capacity()) * s / Math.max(1, SAMPLES - 1);
+				sample.clear();
+				int nRead = src.read(sample, position);
+				if (nRead <= 0)
+					continue;
+				def.reset();
+				def.setInput(sample.array(), 0, nRead);
+				def.finish();
+				while (!def.finished())
+					compressed += def.deflate(out);
+				in += nRead;
+			}
+		} finally {
+			def.end();
+		}
+		return in == 0 || compressed < in * (1 - MIN_GAIN);
+	}
+}
@@ -0,0 +1,58 @@
+package services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * @author federico
+ * Codec deflate raw: stesso algoritmo di gzip ma senza intestazione e senza CRC32, quindi
+ * qualche byte in meno per parte e nessun calcolo del checksum.
+ */
+public class DeflateCodec implements ICodec {
+	private static final int BUFFER_SIZE = 64 * 1024; // 64KB
+
+	@Override
+	public int getId() {
+		return CodecService.DEFLATE;
+	}
+
+	@Override
+	public String getName() {
+		return "deflate";
+	}
+
+	@Override
+	public OutputStream compress(OutputStream os, int level) throws IOException {
+		final Deflater def = new Deflater(level, true);
+		return new DeflaterOutputStream(os, def, BUFFER_SIZE) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					def.end();
+				}
+			}
+		};
+	}
+
+	@Override
+	public InputStream decompress(InputStream is) throws IOException {
+		final Inflater inf = new Inflater(true);
+		return new InflaterInputStream(is, inf, BUFFER_SIZE) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					inf.end();
+				}
+			}
+		};
+	}
+}
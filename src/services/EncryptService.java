@@ -5,15 +5,30 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
-import java.security.spec.KeySpec;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import javax.crypto.AEADBadTagException;
 import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.Mac;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
@@ -21,29 +36,170 @@ import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
 
-import gui.MainPanel;
+import core.IJobListener;
 
 /**
  * @author federico
- * Classe che espone il servizio di cifratura ovvero due funzioni statiche che restituiscono un 
- * cipher per cifrare ed uno per decifrare lo stream di byte.
+ * Classe che espone il servizio di cifratura ovvero le funzioni statiche che restituiscono lo
+ * stream per cifrare e quello per decifrare i byte di una parte.
+ * Le chiavi derivate con PBKDF2 vengono tenute in una cache LRU limitata, indicizzata
+ * dall'impronta della password e dal sale, cos&igrave; la derivazione avviene una volta per job
+ * e non una volta per parte. Ogni job chiama {@link #retain(String)} all'inizio e
+ * {@link #release(String)} alla fine: quando l'ultimo job con quella password finisce le sue
+ * chiavi vengono tolte dalla cache e azzerate.
+ * Le parti vengono cifrate a segmenti con {@link #getEncryptStream(String, byte[], byte[], OutputStream)}:
+ * [int SEG_AAD_MAGIC][int dimensione segmento][sale del job][prefisso nonce della parte] seguiti
+ * dai segmenti, ognuno cifrato con AES/GCM con nonce = prefisso + numero segmento + flag ultimo
+ * segmento e con l'identit&agrave; della parte ({@link #partAad(long, int, long)}) come dati
+ * autenticati, cos&igrave; il contenuto di una parte non pu&ograve; essere scambiato con quello di
+ * un'altra parte della stessa divisione. Le parti con SEG_MAGIC sono a segmenti senza identit&agrave;
+ * della parte e vengono ancora lette, come quelle del vecchio formato (un unico stream GCM con il sale md5 come IV) iniziano
+ * con l'intero SALT_DIM e vengono ancora lette.
  */
 public class EncryptService {
 	private static final int SALT_DIM = 12;
+	private static final int SEG_MAGIC = 0x46535347; // "FSSG"
+	private static final int SEG_AAD_MAGIC = 0x46535341; // "FSSA": segmenti legati alla parte
+	private static final int SEGMENT_SIZE = 1024 * 1024; // 1MiB
+	private static final int MIN_SEGMENT_SIZE = 1024, MAX_SEGMENT_SIZE = 64 * 1024 * 1024;
+	private static final int SEG_SALT_DIM = 16;
+	private static final int NONCE_PREFIX_DIM = 7;
+	private static final int TAG_DIM = 16;
+	private static final SecureRandom random = new SecureRandom();
+	private static final ExecutorService segmentPool = Executors
+			.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors()), r -> {
+				Thread t = new Thread(r, "crypt-segment");
+				t.setDaemon(true);
+				return t;
+			});
+	private static final ThreadLocal<Cipher> segmentCiphers = ThreadLocal.withInitial(() -> {
+		try {
+			return Cipher.getInstance("AES/GCM/NoPadding");
+		} catch (GeneralSecurityException e) {
+			throw new RuntimeException(e);
+		}
+	});
+	private static final int MAX_CACHED_KEYS = 16;
+	/** segreto casuale del processo, la cache non contiene hash diretti delle password */
+	private static final byte[] fingerprintSecret = new byte[32];
+	private static final Map<String, byte[]> keyCache = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+			if (size() <= MAX_CACHED_KEYS)
+				return false;
+			Arrays.fill(eldest.getValue(), (byte) 0);
+			return true;
+		}
+	};
+	private static final Map<String, Integer> keyUsers = new HashMap<String, Integer>();
+	/** derivazioni PBKDF2 in corso, per non ripetere quella di una chiave gi&agrave; richiesta */
+	private static final Map<String, CompletableFuture<Void>> derivations = new ConcurrentHashMap<String, CompletableFuture<Void>>();
+
+	static {
+		random.nextBytes(fingerprintSecret);
+	}
 
 	/**
 	 * Metodo privato statico che genera una chiave univoca partendo dalla password
-	 * e dal sale.
+	 * e dal sale. La chiave viene derivata solo la prima volta, le chiamate
+	 * successive con la stessa password e lo stesso sale la prendono dalla cache.
+	 * Il lock della cache non viene tenuto durante PBKDF2, quindi job con
+	 * password diverse derivano le loro chiavi in parallelo.
 	 * 
 	 * @param password password di cifratura
 	 * @param salt     sale dell'algoritmo AES 128 bit
 	 */
 	private static SecretKey generateSecretKey(String password, byte[] salt)
 			throws NoSuchAlgorithmException, InvalidKeySpecException {
-		KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, 65536, 128); // AES-128
-		SecretKeyFactory secretKeyFactory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-		byte[] key = secretKeyFactory.generateSecret(spec).getEncoded();
-		return new SecretKeySpec(key, "AES");
+		String cacheKey = fingerprint(password) + ":" + new BigInteger(1, salt).toString(16);
+		while (true) {
+			synchronized (keyCache) {
+				byte[] key = keyCache.get(cacheKey);
+				if (key != null)
+					return new SecretKeySpec(key, "AES"); // SecretKeySpec copia la chiave
+			}
+			// la derivazione avviene fuori dal lock, cos&igrave; non blocca i job con
+			// altre password; chi chiede la stessa chiave aspetta e la rilegge dalla cache
+			CompletableFuture<Void> mine = new CompletableFuture<Void>();
+			CompletableFuture<Void> running = derivations.putIfAbsent(cacheKey, mine);
+			if (running != null) {
+				running.join();
+				continue;
+			}
+			try {
+				PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, 65536, 128); // AES-128
+				SecretKeyFactory secretKeyFactory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
+				byte[] key = secretKeyFactory.generateSecret(spec).getEncoded();
+				spec.clearPassword();
+				synchronized (keyCache) {
+					keyCache.put(cacheKey, key);
+					return new SecretKeySpec(key, "AES");
+				}
+			} finally {
+				derivations.remove(cacheKey, mine);
+				mine.complete(null);
+			}
+		}
+	}
+
+	/**
+	 * Metodo privato statico che calcola l'impronta di una password con
+	 * HMAC-SHA256 ed un segreto casuale del processo.
+	 * 
+	 * @param password password di cifratura
+	 * @return impronta esadecimale
+	 */
+	private static String fingerprint(String password) {
+		try {
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(fingerprintSecret, "HmacSHA256"));
+			return new BigInteger(1, mac.doFinal(password.getBytes(StandardCharsets.UTF_8))).toString(16);
+		} catch (NoSuchAlgorithmException | InvalidKeyException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Metodo statico che segnala l'inizio di un job che usa la password. Finch&eacute;
+	 * c'&egrave; almeno un job attivo le chiavi derivate dalla password restano
+	 * in cache (salvo superare il limite della cache).
+	 * 
+	 * @param password password del job
+	 */
+	public static void retain(String password) {
+		String fp = fingerprint(password);
+		synchronized (keyCache) {
+			keyUsers.merge(fp, 1, Integer::sum);
+		}
+	}
+
+	/**
+	 * Metodo statico che segnala la fine di un job che usa la password. Quando
+	 * finisce l'ultimo job le chiavi derivate dalla password vengono tolte dalla
+	 * cache e azzerate.
+	 * 
+	 * @param password password del job
+	 */
+	public static void release(String password) {
+		String fp = fingerprint(password);
+		synchronized (keyCache) {
+			Integer users = keyUsers.get(fp);
+			if (users != null && users > 1) {
+				keyUsers.put(fp, users - 1);
+				return;
+			}
+			keyUsers.remove(fp);
+			Iterator<Map.Entry<String, byte[]>> it = keyCache.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<String, byte[]> e = it.next();
+				if (e.getKey().startsWith(fp + ":")) {
+					Arrays.fill(e.getValue(), (byte) 0);
+					it.remove();
+				}
+			}
+		}
 	}
 
 	/**
@@ -82,61 +238,24 @@ public class EncryptService {
 	}
 
 	/**
-	 * Metodo statico che data una password scrive il suo sale nello stream di
-	 * output e genera un oggetto cipher per cifrare lo stream di byte.
+	 * Metodo privato statico che legge il sale md5 delle parti del vecchio formato,
+	 * lo confronta con quello generato partendo dalla password inserita e, se
+	 * coincidono, genera un oggetto cipher per decifrare lo stream di byte.
 	 * 
 	 * @param password stringa password
-	 * @param dest     stream di output dove tenere traccia del sale
-	 * @param main     oggetto MainPanel per stampare gli errori come popup grafico
-	 * @return oggetto cipher per cifrare
+	 * @param sl       dimensione del sale letta dallo stream
+	 * @param source   stream di input dove leggere il sale
+	 * @param main     listener che riceve gli errori
+	 * @return oggetto cipher per decifrare, null se la password &egrave; errata
 	 */
-	public static Cipher getCipherCrypt(String password, OutputStream dest, MainPanel main) {
+	private static Cipher legacyCipherDecrypt(String password, int sl, InputStream source, IJobListener main) {
 		Cipher cipher = null;
 		try {
-			byte[] salt = getMd5Salt(password);
-			SecretKey secretKey = generateSecretKey(password, salt);
-			GCMParameterSpec parameterSpec = new GCMParameterSpec(128, salt); // AES-128
-			cipher = Cipher.getInstance("AES/GCM/NoPadding");
-			cipher.init(Cipher.ENCRYPT_MODE, secretKey, parameterSpec);
-			ByteBuffer saltBuffer = ByteBuffer.allocate(HeaderService.getIntDim() + salt.length);
-			saltBuffer.putInt(salt.length);
-			saltBuffer.put(salt);
-			dest.write(saltBuffer.array());
-		} catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidAlgorithmParameterException
-				| InvalidKeySpecException | InvalidKeyException e) {
-			main.printError("Cipher Error");
-		} catch (IOException e) {
-			main.printError("I/O Error");
-		}
-		return cipher;
-	}
-
-	/**
-	 * Metodo statico che legge il precedente sale nello stream di input, se lo
-	 * trova lo confronta con quello generato partendo dalla password inserita di
-	 * decifratura e, se coincidono, genera un oggetto cipher per decifrare lo
-	 * stream di byte.
-	 * 
-	 * @param password stringa password
-	 * @param source   stream di output dove leggere il sale
-	 * @param main     oggetto MainPanel per stampare gli errori come popup grafico
-	 * @return oggetto cipher per cifrare
-	 */
-	public static Cipher getCipherDecrypt(String password, InputStream source, MainPanel main) {
-		Cipher cipher = null;
-		try {
-			/** Primo intero */
-			byte[] intLen = new byte[HeaderService.getIntDim()];
-			try {
-				source.read(intLen);
-			} catch (IOException e) {
-				main.printError("I/O Error");
-			}
-
 			/** controllo dimensione sale */
-			int sl = ByteBuffer.wrap(intLen).getInt();
-			if (sl != SALT_DIM)
+			if (sl != SALT_DIM) {
 				main.printError("Salt dimension is wrong");
+				return null;
+			}
 
 			/** byte array di (sl) byte --> sale */
 			byte[] originalSalt = new byte[sl];
@@ -163,4 +282,330 @@ public class EncryptService {
 		}
 		return cipher;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Getter del pool condiviso che cifra e decifra i segmenti
+	 * 
+	 * @return pool di thread grande quanto i core
+	 */
+	static ExecutorService getSegmentPool() {
+		return segmentPool;
+	}
+
+	/**
+	 * Getter della dimensione del tag GCM di ogni segmento
+	 * 
+	 * @return dimensione tag in byte
+	 */
+	static int getTagDim() {
+		return TAG_DIM;
+	}
+
+	/**
+	 * Metodo statico che genera un nuovo sale casuale. Lo splitter ne genera uno per
+	 * job, cos&igrave; tutte le parti usano la stessa chiave derivata una sola volta.
+	 * 
+	 * @return sale casuale
+	 */
+	public static byte[] newSalt() {
+		byte[] salt = new byte[SEG_SALT_DIM];
+		random.nextBytes(salt);
+		return salt;
+	}
+
+	/**
+	 * Metodo privato statico che prepara il cipher del thread corrente per un
+	 * segmento. Il nonce di 12 byte &egrave; formato dal prefisso casuale della
+	 * parte, dal numero del segmento e dal flag di ultimo segmento, quindi non si
+	 * ripete mai con la stessa chiave e i segmenti non possono essere scambiati,
+	 * spostati o tolti dalla fine. I dati autenticati legano il segmento alla sua
+	 * parte.
+	 */
+	private static Cipher segmentCipher(int mode, SecretKey key, byte[] noncePrefix, byte[] aad, long index,
+			boolean last) throws GeneralSecurityException {
+		ByteBuffer nonce = ByteBuffer.allocate(NONCE_PREFIX_DIM + 5);
+		nonce.put(noncePrefix).putInt((int) index).put((byte) (last ? 1 : 0));
+		Cipher cipher = segmentCiphers.get();
+		cipher.init(mode, key, new GCMParameterSpec(TAG_DIM * 8, nonce.array()));
+		if (aad != null)
+			cipher.updateAAD(aad);
+		return cipher;
+	}
+
+	/**
+	 * Metodo statico che restituisce i dati autenticati dei segmenti di una parte:
+	 * identificativo della divisione, numero della parte e posizione nel file
+	 * originale, gli stessi dell'Header.
+	 * 
+	 * @param setId  identificativo della divisione
+	 * @param part   numero della parte
+	 * @param offset posizione della parte nel file originale
+	 * @return dati autenticati della parte
+	 */
+	public static byte[] partAad(long setId, int part, long offset) {
+		return ByteBuffer.allocate(2 * 8 + 4).putLong(setId).putInt(part).putLong(offset).array();
+	}
+
+	/**
+	 * Metodo statico che cifra un segmento.
+	 * 
+	 * @param key         chiave AES
+	 * @param noncePrefix prefisso nonce della parte
+	 * @param aad         dati autenticati della parte, null per nessuno
+	 * @param index       numero del segmento nella parte
+	 * @param last        true se &egrave; l'ultimo segmento della parte
+	 * @param data        byte in chiaro
+	 * @param len         numero di byte validi
+	 * @return segmento cifrato seguito dal tag
+	 * @throws GeneralSecurityException in caso di errore di cifratura
+	 */
+	static byte[] sealSegment(SecretKey key, byte[] noncePrefix, byte[] aad, long index, boolean last, byte[] data,
+			int len) throws GeneralSecurityException {
+		return segmentCipher(Cipher.ENCRYPT_MODE, key, noncePrefix, aad, index, last).doFinal(data, 0, len);
+	}
+
+	/**
+	 * Metodo statico che decifra un segmento verificandone il tag.
+	 * 
+	 * @param key         chiave AES
+	 * @param noncePrefix prefisso nonce della parte
+	 * @param aad         dati autenticati della parte, null per nessuno
+	 * @param index       numero del segmento nella parte
+	 * @param last        true se &egrave; l'ultimo segmento della parte
+	 * @param data        segmento cifrato seguito dal tag
+	 * @param len         numero di byte del segmento
+	 * @return byte in chiaro
+	 * @throws GeneralSecurityException se il tag non &egrave; valido
+	 */
+	static byte[] openSegment(SecretKey key, byte[] noncePrefix, byte[] aad, long index, boolean last, byte[] data,
+			int len) throws GeneralSecurityException {
+		return segmentCipher(Cipher.DECRYPT_MODE, key, noncePrefix, aad, index, last).doFinal(data, 0, len);
+	}
+
+	/**
+	 * Metodo statico che scrive l'intestazione dei segmenti nello stream di output e
+	 * restituisce lo stream su cui scrivere i dati da cifrare. Ogni parte ha un
+	 * prefisso nonce casuale diverso.
+	 * 
+	 * @param password stringa password
+	 * @param salt     sale del job generato con {@link #newSalt()}
+	 * @param aad      dati autenticati della parte da {@link #partAad(long, int, long)}
+	 * @param dest     stream di output della parte
+	 * @return stream di cifratura a segmenti
+	 * @throws IOException in caso di errore di scrittura o di derivazione della
+	 *                     chiave
+	 */
+	public static OutputStream getEncryptStream(String password, byte[] salt, byte[] aad, OutputStream dest)
+			throws IOException {
+		SecretKey key;
+		try {
+			key = generateSecretKey(password, salt);
+		} catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+			throw new IOException("Cipher Error", e);
+		}
+		byte[] noncePrefix = new byte[NONCE_PREFIX_DIM];
+		random.nextBytes(noncePrefix);
+		ByteBuffer header = ByteBuffer.allocate(2 * HeaderService.getIntDim() + SEG_SALT_DIM + NONCE_PREFIX_DIM);
+		header.putInt(SEG_AAD_MAGIC).putInt(SEGMENT_SIZE).put(salt).put(noncePrefix);
+		dest.write(header.array());
+		return new SegmentedEncryptOutputStream(dest, key, noncePrefix, aad, SEGMENT_SIZE);
+	}
+
+	/**
+	 * Classe che contiene l'intestazione dei segmenti letta da una parte.
+	 */
+	private static class SegmentHeader {
+		int segmentSize;
+		byte[] salt = new byte[SEG_SALT_DIM];
+		byte[] noncePrefix = new byte[NONCE_PREFIX_DIM];
+
+		/**
+		 * Metodo che legge l'intestazione dopo l'intero SEG_MAGIC.
+		 */
+		static SegmentHeader read(InputStream source) throws IOException {
+			SegmentHeader sh = new SegmentHeader();
+			byte[] b = new byte[HeaderService.getIntDim() + SEG_SALT_DIM + NONCE_PREFIX_DIM];
+			readFully(source, b);
+			ByteBuffer bb = ByteBuffer.wrap(b);
+			sh.segmentSize = bb.getInt();
+			if (sh.segmentSize < MIN_SEGMENT_SIZE || sh.segmentSize > MAX_SEGMENT_SIZE)
+				throw new IOException("Segment size is wrong");
+			bb.get(sh.salt).get(sh.noncePrefix);
+			return sh;
+		}
+
+		/**
+		 * Getter della dimensione dell'intestazione compreso l'intero SEG_MAGIC.
+		 */
+		static int getDim() {
+			return 2 * HeaderService.getIntDim() + SEG_SALT_DIM + NONCE_PREFIX_DIM;
+		}
+	}
+
+	/**
+	 * Metodo privato statico che legge esattamente b.length byte.
+	 */
+	private static void readFully(InputStream source, byte[] b) throws IOException {
+		int n = 0;
+		while (n < b.length) {
+			int r = source.read(b, n, b.length - n);
+			if (r < 0)
+				throw new IOException("Encrypted part is truncated");
+			n += r;
+		}
+	}
+
+	/**
+	 * Metodo privato statico che legge il primo intero dei dati cifrati, che
+	 * distingue il formato a segmenti (SEG_AAD_MAGIC o SEG_MAGIC) da quello vecchio
+	 * (SALT_DIM).
+	 */
+	private static int readFormat(InputStream source) throws IOException {
+		byte[] intLen = new byte[HeaderService.getIntDim()];
+		readFully(source, intLen);
+		return ByteBuffer.wrap(intLen).getInt();
+	}
+
+	/**
+	 * Metodo privato statico che restituisce i dati autenticati da usare per il
+	 * formato letto: quelli della parte per SEG_AAD_MAGIC, nessuno per SEG_MAGIC.
+	 */
+	private static byte[] formatAad(int format, byte[] aad) throws IOException {
+		if (format == SEG_MAGIC)
+			return null;
+		if (aad == null)
+			throw new IOException("The part has no Header to authenticate");
+		return aad;
+	}
+
+	/**
+	 * Metodo statico che restituisce lo stream dei dati decifrati di una parte.
+	 * Le parti a segmenti vengono decifrate in parallelo ed in memoria costante, le
+	 * parti del vecchio formato con un CipherInputStream.
+	 * 
+	 * @param password stringa password
+	 * @param source   stream della parte posizionato dopo l'eventuale Header
+	 * @param aad      dati autenticati della parte da
+	 *                 {@link #partAad(long, int, long)}, null se la parte non ha
+	 *                 l'Header
+	 * @param main     listener che riceve gli errori
+	 * @return stream dei dati decifrati, null se la password &egrave; errata
+	 * @throws IOException in caso di errore di lettura
+	 */
+	public static InputStream getDecryptStream(String password, InputStream source, byte[] aad, IJobListener main)
+			throws IOException {
+		int format = readFormat(source);
+		if (format != SEG_MAGIC && format != SEG_AAD_MAGIC) {
+			Cipher cipher = legacyCipherDecrypt(password, format, source, main);
+			return cipher == null ? null : new CipherInputStream(source, cipher);
+		}
+		SegmentHeader sh = SegmentHeader.read(source);
+		try {
+			SecretKey key = generateSecretKey(password, sh.salt);
+			return new SegmentedDecryptInputStream(source, key, sh.noncePrefix, formatAad(format, aad),
+					sh.segmentSize);
+		} catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+			throw new IOException("Cipher Error", e);
+		}
+	}
+
+	/**
+	 * Metodo statico che controlla la password sulla prima parte senza decifrarla
+	 * tutta: nel vecchio formato confronta il sale md5, nel formato a segmenti
+	 * verifica il tag del primo segmento.
+	 * 
+	 * @param password stringa password
+	 * @param source   stream della parte posizionato dopo l'eventuale Header
+	 * @param aad      dati autenticati della parte, null se la parte non ha
+	 *                 l'Header
+	 * @param main     listener che riceve gli errori
+	 * @return true se la password &egrave; corretta
+	 * @throws IOException in caso di errore di lettura
+	 */
+	public static boolean checkPassword(String password, InputStream source, byte[] aad, IJobListener main)
+			throws IOException {
+		int format = readFormat(source);
+		if (format != SEG_MAGIC && format != SEG_AAD_MAGIC)
+			return legacyCipherDecrypt(password, format, source, main) != null;
+		aad = formatAad(format, aad);
+		SegmentHeader sh = SegmentHeader.read(source);
+		byte[] chunk = new byte[sh.segmentSize + TAG_DIM];
+		int n = 0, r;
+		while (n < chunk.length && (r = source.read(chunk, n, chunk.length - n)) >= 0)
+			n += r;
+		try {
+			SecretKey key = generateSecretKey(password, sh.salt);
+			// non sapendo se il primo segmento &egrave; anche l'ultimo si provano entrambi i nonce
+			for (boolean last : new boolean[] { false, true }) {
+				try {
+					openSegment(key, sh.noncePrefix, aad, 0, last, chunk, n);
+					return true;
+				} catch (AEADBadTagException e) {
+					// prova con l'altro nonce
+				}
+			}
+		} catch (GeneralSecurityException e) {
+			main.printError("Cipher Error");
+			return false;
+		}
+		main.printError("Wrong password!!!");
+		return false;
+	}
+
+	/**
+	 * Metodo statico che decifra un intervallo dei dati di una parte a segmenti
+	 * leggendo solo i segmenti che lo contengono. L'intervallo si riferisce ai dati
+	 * cifrati, cio&egrave; a quelli originali se la parte non &egrave; compressa.
+	 * 
+	 * @param password  stringa password
+	 * @param part      canale della parte
+	 * @param dataStart posizione dei dati cifrati nella parte (dopo l'eventuale
+	 *                  Header)
+	 * @param offset    primo byte in chiaro da decifrare
+	 * @param length    numero di byte in chiaro da decifrare
+	 * @param aad       dati autenticati della parte da
+	 *                  {@link #partAad(long, int, long)}
+	 * @param dest      stream su cui scrivere i byte decifrati
+	 * @throws IOException in caso di errore di lettura, di formato vecchio o di tag
+	 *                     non valido
+	 */
+	public static void decryptRange(String password, FileChannel part, long dataStart, long offset, long length,
+			byte[] aad, OutputStream dest) throws IOException {
+		InputStream source = Channels.newInputStream(part.position(dataStart));
+		int format = readFormat(source);
+		if (format != SEG_MAGIC && format != SEG_AAD_MAGIC)
+			throw new IOException("Random access needs the segmented format");
+		aad = formatAad(format, aad);
+		SegmentHeader sh = SegmentHeader.read(source);
+		long chunkSize = sh.segmentSize + TAG_DIM;
+		long segmentsStart = dataStart + SegmentHeader.getDim();
+		long cipherLen = part.size() - segmentsStart;
+		long totSegments = Math.max(1, (cipherLen + chunkSize - 1) / chunkSize);
+		SecretKey key;
+		try {
+			key = generateSecretKey(password, sh.salt);
+		} catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+			throw new IOException("Cipher Error", e);
+		}
+		ByteBuffer chunk = ByteBuffer.allocate((int) chunkSize);
+		long end = offset + length;
+		for (long i = offset / sh.segmentSize; i < totSegments && i * sh.segmentSize < end; i++) {
+			chunk.clear();
+			long position = segmentsStart + i * chunkSize;
+			while (chunk.hasRemaining() && part.read(chunk, position + chunk.position()) > 0)
+				;
+			byte[] plain;
+			try {
+				plain = openSegment(key, sh.noncePrefix, aad, i, i == totSegments - 1, chunk.array(),
+						chunk.position());
+			} catch (GeneralSecurityException e) {
+				throw new IOException("Segment " + i + " authentication failed", e);
+			}
+			long segStart = i * sh.segmentSize;
+			int from = (int) Math.max(0, offset - segStart);
+			int to = (int) Math.min(plain.length, end - segStart);
+			if (to > from)
+				dest.write(plain, from, to - from);
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * @author federico
+ * Codec gzip, quello di default e l'unico usato prima dell'introduzione dei codec. La
+ * compressione usa services>ParallelGzipOutputStream, quindi ogni parte &egrave; un normale
+ * membro gzip leggibile anche con gunzip.
+ */
+public class GzipCodec implements ICodec {
+
+	@Override
+	public int getId() {
+		return CodecService.GZIP;
+	}
+
+	@Override
+	public String getName() {
+		return "gzip";
+	}
+
+	@Override
+	public OutputStream compress(OutputStream os, int level) throws IOException {
+		return new ParallelGzipOutputStream(os, level);
+	}
+
+	@Override
+	public InputStream decompress(InputStream is) throws IOException {
+		return new GZIPInputStream(is, 64 * 1024);
+	}
+}
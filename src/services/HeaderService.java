@@ -1,28 +1,51 @@
 package services;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectInput;
+import java.io.InvalidClassException;
+import java.io.ObjectInputFilter;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Vector;
 
 import core.Header;
 import core.ISplitter;
-import gui.MainPanel;
+import core.IJobListener;
+import core.Manifest;
 
 /**
  * @author federico 
- * Classe che espone il servizio di controllo dell'Header per scriverlo all'inizio della
- * prima parte splittata e rileggerlo per capire come comportarsi con quel file.
+ * Classe che espone il servizio di controllo dell'Header per scriverlo all'inizio di ogni
+ * parte splittata e rileggerlo per capire come comportarsi con quel file. L'Header viene
+ * scritto in un formato binario compatto e versionato; gli Header serializzati con
+ * ObjectOutputStream dalle versioni precedenti vengono ancora letti.
  */
 public class HeaderService {
+	/** "FSPH": primi byte degli Header binari */
+	public static final int HEADER_MAGIC = 0x46535048;
+	public static final byte HEADER_VERSION = 1;
+	private static final byte TAG_END = 0, TAG_TOT_PARTS = 1, TAG_PART = 2, TAG_FLAGS = 3, TAG_NAME = 4,
+			TAG_CODEC = 5, TAG_SET_ID = 6, TAG_OFFSET = 7, TAG_LENGTH = 8, TAG_CHECKSUM = 9;
+	private static final int FLAG_COMPRESS = 1, FLAG_ENCRYPT = 2;
+	private static final int MAX_HEADER_DIM = 64 * 1024; // 64KB
+	// gli Header serializzati possono contenere solo un Header con il suo nome, nessun'altra classe
+	private static final ObjectInputFilter LEGACY_HEADER_FILTER = ObjectInputFilter.Config
+			.createFilter("core.Header;java.lang.String;maxdepth=2;maxrefs=16;maxbytes=" + MAX_HEADER_DIM + ";!*");
+	private static final int PROBE_DIM = 512;
+	// posizione nella parte del valore di TAG_CHECKSUM, il primo campo dopo la versione
+	private static final int CHECKSUM_POS = Integer.BYTES + 4 + 1 + 3;
 
 	/**
 	 * Getter della dimensione di un intero in Java
@@ -34,21 +57,24 @@ public class HeaderService {
 	}
 
 	/**
-	 * Metodo per deserializzare l'oggetto Header. Lavora nel modo opposto di
-	 * {@link #Header2ByteArray(Header, MainPanel)}
+	 * Metodo per leggere l'oggetto Header. Lavora nel modo opposto di
+	 * {@link #Header2ByteArray(Header, IJobListener)}. Gli Header binari iniziano
+	 * con {@link #HEADER_MAGIC}, quelli scritti dalle versioni precedenti sono
+	 * oggetti serializzati (0xACED) e vengono ancora letti con ObjectInputStream,
+	 * con un filtro che accetta solo la classe Header.
 	 * 
-	 * @param headerBytes byte array contenente l'array da deserializzare
-	 * @param main        oggetto MainPanel per stampare gli errori come popup
-	 *                    grafico
-	 * @return oggetto Header deserializzato
+	 * @param headerBytes byte array contenente l'Header
+	 * @param main        listener che riceve gli errori
+	 * @return oggetto Header letto, null se corrotto
 	 */
-	public static Header byteArray2Header(byte[] headerBytes, MainPanel main) {
-		ByteArrayInputStream byteInputStream = new ByteArrayInputStream(headerBytes);
-		ObjectInput objectInputStream;
+	public static Header byteArray2Header(byte[] headerBytes, IJobListener main) {
 		Header h = null;
 		try {
-			objectInputStream = new ObjectInputStream(byteInputStream);
-			h = (Header) objectInputStream.readObject();
+			h = decodeHeader(headerBytes);
+			if (h == null)
+				main.printError("Header is corrupted");
+		} catch (InvalidClassException e) { // classe rifiutata dal filtro
+			main.printError("Header is corrupted");
 		} catch (IOException e) {
 			main.printError("Error I/O");
 		} catch (ClassNotFoundException e) {
@@ -58,27 +84,193 @@ public class HeaderService {
 	}
 
 	/**
-	 * Metodo per serializzare l'header. Lavora nel modo opposto di
-	 * {@link #byteArray2Header(byte[], MainPanel)}
+	 * Metodo che riconosce il formato dell'Header e lo legge senza stampare
+	 * errori.
 	 * 
-	 * @param h    oggetto di tipo Header da serializzare
-	 * @param main oggetto MainPanel per stampare gli errori come popup grafico
-	 * @return byte array contenente l'oggetto serializzato
+	 * @param headerBytes byte array contenente l'Header
+	 * @return oggetto Header letto, null se il formato non &egrave; riconosciuto o
+	 *         i campi non sono validi
+	 * @throws IOException            in caso di errore di lettura di un Header
+	 *                                serializzato
+	 * @throws ClassNotFoundException se l'oggetto serializzato non &egrave; un
+	 *                                Header
 	 */
-	public static byte[] Header2ByteArray(Header h, MainPanel main) {
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
-		ObjectOutputStream out = null;
-		byte[] hArr = null;
+	private static Header decodeHeader(byte[] headerBytes) throws IOException, ClassNotFoundException {
+		if (headerBytes.length >= 2 && (headerBytes[0] & 0xFF) == 0xAC && (headerBytes[1] & 0xFF) == 0xED) {
+			// Header serializzato dalle versioni precedenti
+			try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(headerBytes))) {
+				in.setObjectInputFilter(LEGACY_HEADER_FILTER);
+				Object o = in.readObject();
+				return o instanceof Header ? (Header) o : null;
+			}
+		}
+		ByteBuffer buf = ByteBuffer.wrap(headerBytes);
 		try {
-			out = new ObjectOutputStream(bos);
-			out.writeObject(h);
-			out.flush();
-			hArr = bos.toByteArray();
-			bos.close();
+			if (buf.getInt() != HEADER_MAGIC || (buf.get() & 0xFF) > HEADER_VERSION)
+				return null;
+			Header h = new Header(0, 0, false, false, null);
+			int tag;
+			while ((tag = buf.get() & 0xFF) != TAG_END) {
+				int len = buf.getShort() & 0xFFFF;
+				ByteBuffer value = buf.slice();
+				value.limit(len);
+				buf.position(buf.position() + len);
+				switch (tag) {
+				case TAG_TOT_PARTS:
+					h.setTotParts(value.getInt());
+					break;
+				case TAG_PART:
+					h.setPart(value.getInt());
+					break;
+				case TAG_FLAGS:
+					byte flags = value.get();
+					h.setCompress((flags & FLAG_COMPRESS) != 0);
+					h.setEncrypt((flags & FLAG_ENCRYPT) != 0);
+					break;
+				case TAG_NAME:
+					h.setName(new String(headerBytes, buf.position() - len, len, StandardCharsets.UTF_8));
+					break;
+				case TAG_CODEC:
+					h.setCodec(value.get() & 0xFF);
+					break;
+				case TAG_SET_ID:
+					h.setSetId(value.getLong());
+					break;
+				case TAG_OFFSET:
+					h.setOffset(value.getLong());
+					break;
+				case TAG_LENGTH:
+					h.setLength(value.getLong());
+					break;
+				case TAG_CHECKSUM:
+					h.setChecksum(value.getInt());
+					break;
+				default:
+					break; // campo di una versione successiva, viene saltato
+				}
+			}
+			return h.getName() != null && h.getPart() > 0 && h.getTotParts() >= h.getPart() ? h : null;
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Metodo per scrivere l'header in formato binario: {@link #HEADER_MAGIC}, un
+	 * byte di versione e i campi come tag (1 byte), lunghezza (2 byte) e valore,
+	 * chiusi dal tag {@link #TAG_END}. I lettori saltano i tag che non conoscono,
+	 * quindi si possono aggiungere campi senza rompere le parti gi&agrave;
+	 * scritte. Lavora nel modo opposto di
+	 * {@link #byteArray2Header(byte[], IJobListener)}
+	 * 
+	 * @param h    oggetto di tipo Header da scrivere
+	 * @param main listener che riceve gli errori
+	 * @return byte array contenente l'Header
+	 */
+	public static byte[] Header2ByteArray(Header h, IJobListener main) {
+		byte[] name = h.getName().getBytes(StandardCharsets.UTF_8);
+		if (name.length > 0xFFFF) {
+			main.printError("File name too long");
+			return null;
+		}
+		ByteBuffer buf = ByteBuffer.allocate(4 + 1 + 3 * (3 + 4) + 2 * (3 + 1) + 3 * (3 + 8) + 3 + name.length + 1);
+		buf.putInt(HEADER_MAGIC).put(HEADER_VERSION);
+		if (h.getSetId() != 0) // a posizione fissa, viene riscritto a parte finita
+			buf.put(TAG_CHECKSUM).putShort((short) 4).putInt(h.getChecksum());
+		buf.put(TAG_TOT_PARTS).putShort((short) 4).putInt(h.getTotParts());
+		buf.put(TAG_PART).putShort((short) 4).putInt(h.getPart());
+		buf.put(TAG_FLAGS).putShort((short) 1)
+				.put((byte) ((h.isCompress() ? FLAG_COMPRESS : 0) | (h.isEncrypt() ? FLAG_ENCRYPT : 0)));
+		buf.put(TAG_CODEC).putShort((short) 1).put((byte) h.getCodec());
+		if (h.getSetId() != 0) {
+			buf.put(TAG_SET_ID).putShort((short) 8).putLong(h.getSetId());
+			buf.put(TAG_OFFSET).putShort((short) 8).putLong(h.getOffset());
+			buf.put(TAG_LENGTH).putShort((short) 8).putLong(h.getLength());
+		}
+		buf.put(TAG_NAME).putShort((short) name.length).put(name);
+		buf.put(TAG_END);
+		return Arrays.copyOf(buf.array(), buf.position());
+	}
+
+	/**
+	 * Metodo che legge l'Header di una parte con una sola lettura posizionale e
+	 * senza stampare errori, per controllare velocemente molti file (ad esempio
+	 * per cercare le parti in una cartella). Gli Header binari vengono letti senza
+	 * reflection, quelli serializzati con ObjectInputStream.
+	 * 
+	 * @param part canale della parte
+	 * @return Header della parte, null se il file non inizia con un Header
+	 *         valido
+	 */
+	public static Header probeHeader(FileChannel part) {
+		try {
+			ByteBuffer buf = ByteBuffer.allocate(PROBE_DIM);
+			int n = 0, r;
+			while (n < buf.capacity() && (r = part.read(buf, n)) > 0)
+				n += r;
+			if (n < getIntDim() + 4)
+				return null;
+			int dim = buf.getInt(0);
+			if (dim <= 0 || dim > MAX_HEADER_DIM)
+				return null;
+			byte[] headerBytes = new byte[dim];
+			if (getIntDim() + dim <= n)
+				System.arraycopy(buf.array(), getIntDim(), headerBytes, 0, dim);
+			else if (part.read(ByteBuffer.wrap(headerBytes), getIntDim()) != dim)
+				return null;
+			return decodeHeader(headerBytes);
+		} catch (IOException | ClassNotFoundException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Metodo identico a {@link #probeHeader(FileChannel)} che apre il file della
+	 * parte.
+	 * 
+	 * @param part path della parte
+	 * @return Header della parte, null se il file non esiste o non inizia con un
+	 *         Header valido
+	 */
+	public static Header probeHeader(Path part) {
+		try (FileChannel ch = FileChannel.open(part, StandardOpenOption.READ)) {
+			return probeHeader(ch);
 		} catch (IOException e) {
-			main.printError("Error I/O");
+			return null;
 		}
-		return hArr;
+	}
+
+	/**
+	 * Metodo che legge esattamente b.length byte dallo stream.
+	 * 
+	 * @param source stream di input
+	 * @param b      array da riempire
+	 * @return true se l'array &egrave; stato riempito, false se lo stream finisce
+	 *         prima
+	 * @throws IOException in caso di errore di lettura
+	 */
+	private static boolean readFully(InputStream source, byte[] b) throws IOException {
+		int off = 0, n;
+		while (off < b.length && (n = source.read(b, off, b.length - off)) > 0)
+			off += n;
+		return off == b.length;
+	}
+
+	/**
+	 * Metodo che scrive il checksum nell'Header di una parte gi&agrave; scritta,
+	 * quando tutti i byte della parte sono stati calcolati. L'Header deve essere
+	 * stato scritto con l'identificativo della divisione, che mette il checksum
+	 * come primo campo.
+	 * 
+	 * @param part     canale della parte aperto in scrittura
+	 * @param checksum CRC32C dei byte originali della parte
+	 * @throws IOException in caso di errore di scrittura
+	 */
+	public static void setChecksum(FileChannel part, int checksum) throws IOException {
+		ByteBuffer value = ByteBuffer.allocate(4).putInt(checksum);
+		value.flip();
+		while (value.hasRemaining())
+			part.write(value, CHECKSUM_POS + value.position());
 	}
 
 	/**
@@ -95,13 +287,13 @@ public class HeaderService {
 	 * di mettere l'Header per&ograve; viene inserito un intero contenente la dimensione
 	 * dell'Header {@link #getHeaderDimBytes(byte[])} che sta per essere scritto e
 	 * poi l'oggetto Header serializzato con
-	 * {@link #Header2ByteArray(Header, MainPanel)}.
+	 * {@link #Header2ByteArray(Header, IJobListener)}.
 	 * 
 	 * @param h    oggetto Header da scrivere nella parte splittata
 	 * @param dest stream di output dove scrivere l'Header
-	 * @param main oggetto MainPanel per stampare gli errori come popup grafico
+	 * @param main listener che riceve gli errori
 	 */
-	public static void setHeader(Header h, OutputStream dest, MainPanel main) {
+	public static void setHeader(Header h, OutputStream dest, IJobListener main) {
 		byte[] hBytes = Header2ByteArray(h, main);
 		try {
 			dest.write(ByteBuffer.allocate(4).putInt(getHeaderDimBytes(hBytes)).array());
@@ -115,10 +307,10 @@ public class HeaderService {
 	 * Getter della dimensione dell'Header contenuta nell'intero antecedente.
 	 * 
 	 * @param source stream di input dove leggere l'intero
-	 * @param main   oggetto MainPanel per stampare gli errori come popup grafico
+	 * @param main   listener che riceve gli errori
 	 * @return dimensione in byte dell'header
 	 */
-	public static int getHeaderDim(InputStream source, MainPanel main) {
+	public static int getHeaderDim(InputStream source, IJobListener main) {
 		byte[] intBuff = new byte[getIntDim()];
 		try {
 			if (source.read(intBuff) != -1)
@@ -133,18 +325,23 @@ public class HeaderService {
 	/**
 	 * Getter per leggere l'Header dalla parte splittata. Per sapere la dimensione
 	 * dell'Header legge l'intero nel quale &egrave; contenuta con
-	 * {@link #getHeaderDim(InputStream, MainPanel)} poi lo deserializza con il
-	 * metodo {@link #byteArray2Header(byte[], MainPanel)}.
+	 * {@link #getHeaderDim(InputStream, IJobListener)} poi lo deserializza con il
+	 * metodo {@link #byteArray2Header(byte[], IJobListener)}.
 	 * 
 	 * @param source stream di input dove leggere l'Header
-	 * @param main   oggetto MainPanel per stampare gli errori come popup grafico
+	 * @param main   listener che riceve gli errori
 	 * @return Header letto dalla parte splittata
 	 */
-	public static Header getHeader(InputStream source, MainPanel main) {
+	public static Header getHeader(InputStream source, IJobListener main) {
 		Header h = null;
 		try {
-			byte[] headerBuff = new byte[getHeaderDim(source, main)];
-			if (source.read(headerBuff) != -1)
+			int dimHeader = getHeaderDim(source, main);
+			if (dimHeader <= 0 || dimHeader > MAX_HEADER_DIM) {
+				main.printError("Header is corrupted");
+				return null;
+			}
+			byte[] headerBuff = new byte[dimHeader];
+			if (readFully(source, headerBuff))
 				h = byteArray2Header(headerBuff, main);
 		} catch (IOException e) {
 			main.printError("I/O Error");
@@ -154,19 +351,23 @@ public class HeaderService {
 	}
 
 	/**
-	 * Metodo identico a {@link #getHeader(InputStream, MainPanel)} ma con la
+	 * Metodo identico a {@link #getHeader(InputStream, IJobListener)} ma con la
 	 * differenza che si sa gi&agrave; la dimensione dell'Header da leggere.
 	 * 
 	 * @param source    stream di input dove leggere l'Header
 	 * @param dimHeader dimensione dell'oggetto Header
-	 * @param main      oggetto MainPanel per stampare gli errori come popup grafico
+	 * @param main      listener che riceve gli errori
 	 * @return Header letto dalla parte splittata
 	 */
-	public static Header getHeader(InputStream source, int dimHeader, MainPanel main) {
+	public static Header getHeader(InputStream source, int dimHeader, IJobListener main) {
 		Header h = null;
 		try {
-			byte[] headerBuff = new byte[(int) dimHeader];
-			if (source.read(headerBuff) != -1)
+			if (dimHeader <= 0 || dimHeader > MAX_HEADER_DIM) {
+				main.printError("Header is corrupted");
+				return null;
+			}
+			byte[] headerBuff = new byte[dimHeader];
+			if (readFully(source, headerBuff))
 				h = byteArray2Header(headerBuff, main);
 		} catch (IOException e) {
 			main.printError("I/O Error");
@@ -179,18 +380,45 @@ public class HeaderService {
 	 * Metodo di servizio per core>QueueJobs.addQueueStitcher() che gestisce la
 	 * lettura delle informazioni dentro l'Header e l'aggiunta del Job in coda (o in
 	 * una posizione row in caso di modifica) creato con services>JobFactoryService.
+	 * Se ogni parte ha l'Header si pu&ograve; partire da una parte qualsiasi o dal
+	 * manifest della divisione, altrimenti serve la prima parte.
 	 * 
 	 * @param row       -1 per aggiungere in coda; >=0 per mettere l'oggetto nella
 	 *                  posizione a seguito di una modifica
-	 * @param sf        path della parte sorgente
+	 * @param sf        path della parte sorgente o del manifest
 	 * @param df        path della cartella di destinazione dove ricompattare il
 	 *                  file
-	 * @param main      oggetto MainPanel per stampare gli errori come popup grafico
+	 * @param main      listener che riceve gli errori
+	 * @param queueJobs coda dei job
+	 * @return array contenente le informazioni estratte e da mettere nella tabella
+	 */
+	public static Object[] exctractDataFirst(int row, String sf, String df, IJobListener main,
+			Vector<ISplitter> queueJobs) {
+		return exctractDataFirst(row, sf, df, false, main, queueJobs);
+	}
+
+	/**
+	 * Metodo identico a
+	 * {@link #exctractDataFirst(int, String, String, IJobListener, Vector)} che con
+	 * verify aggiunge in coda un job che controlla le parti senza riunirle, creato
+	 * con services>JobFactoryService.retrieveVerifier(). Solo le divisioni con
+	 * l'Header in ogni parte possono essere controllate.
+	 * 
+	 * @param row       -1 per aggiungere in coda; >=0 per mettere l'oggetto nella
+	 *                  posizione a seguito di una modifica
+	 * @param sf        path della parte sorgente o del manifest
+	 * @param df        path della cartella di destinazione, ignorato con verify
+	 * @param verify    true per controllare le parti invece di riunirle
+	 * @param main      listener che riceve gli errori
 	 * @param queueJobs coda dei job
 	 * @return array contenente le informazioni estratte e da mettere nella tabella
 	 */
-	public static Object[] exctractDataFirst(int row, String sf, String df, MainPanel main,
+	public static Object[] exctractDataFirst(int row, String sf, String df, boolean verify, IJobListener main,
 			Vector<ISplitter> queueJobs) {
+		Manifest m = sf.endsWith(ManifestService.MANIFEST_EXTENSION) ? ManifestService.readManifest(Paths.get(sf))
+				: null;
+		if (m != null) // si parte dalla prima parte elencata nel manifest
+			sf = new File(new File(sf).getAbsoluteFile().getParent(), m.getFile(1)).getPath();
 		Header h = null;
 		FileInputStream fis_source = null;
 		try {
@@ -201,16 +429,24 @@ public class HeaderService {
 				fis_source.close();
 				if (h == null)
 					return null;
-				else if (h.getPart() != 1) {
+				else if (verify && h.getSetId() == 0) { // parti senza checksum
+					main.printError("Only splits with a Header in every part can be verified");
+					return null;
+				} else if (h.getPart() != 1 && h.getSetId() == 0) { // solo la prima parte ha l'Header
 					main.printError("Please add the first part!");
 					return null;
 				} else {
+					ISplitter job = verify
+							? JobFactoryService.retrieveVerifier(h.getName(), sf, h.getPart(), h.getTotParts(),
+									h.isCompress(), h.isEncrypt(), h.getCodec(), main)
+							: JobFactoryService.retrieveJob(h.getName(), sf, df, h.getPart(), h.getTotParts(),
+									h.isCompress(), h.isEncrypt(), h.getCodec(), main);
+					if (job == null)
+						return null;
 					if (row == -1)
-						queueJobs.add(JobFactoryService.retrieveJob(h.getName(), sf, df, h.getPart(), h.getTotParts(),
-								h.isCompress(), h.isEncrypt(), main));
+						queueJobs.add(job);
 					else
-						queueJobs.insertElementAt(JobFactoryService.retrieveJob(h.getName(), sf, df, h.getPart(),
-								h.getTotParts(), h.isCompress(), h.isEncrypt(), main), row);
+						queueJobs.insertElementAt(job, row);
 					return new Object[] { h.getPart(), h.getTotParts(), h.isCompress(), h.isEncrypt() };
 				}
 			} else {
@@ -0,0 +1,49 @@
+package services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * @author federico
+ * Interfaccia comune a tutti i codec di compressione delle parti. Ogni codec ha un
+ * identificativo che viene salvato nell'Header, cos&igrave; lo stitcher pu&ograve; recuperare
+ * il decoder giusto con services>CodecService.getCodec(int).
+ */
+public interface ICodec {
+
+	/**
+	 * Getter dell'identificativo del codec salvato nell'Header
+	 * 
+	 * @return identificativo codec
+	 */
+	public int getId();
+
+	/**
+	 * Getter del nome del codec usato per sceglierlo
+	 * 
+	 * @return nome codec
+	 */
+	public String getName();
+
+	/**
+	 * Metodo che avvolge lo stream di output con il compressore del codec. Chiudendo
+	 * lo stream restituito viene chiuso anche quello sottostante.
+	 * 
+	 * @param os    stream su cui scrivere i dati compressi
+	 * @param level livello di compressione da 1 a 9 (-1 per quello di default), i
+	 *              codec senza livelli lo ignorano
+	 * @return stream su cui scrivere i dati da comprimere
+	 * @throws IOException in caso di errore di scrittura
+	 */
+	public OutputStream compress(OutputStream os, int level) throws IOException;
+
+	/**
+	 * Metodo che avvolge lo stream di input con il decompressore del codec.
+	 * 
+	 * @param is stream da cui leggere i dati compressi
+	 * @return stream da cui leggere i dati decompressi
+	 * @throws IOException in caso di errore di lettura
+	 */
+	public InputStream decompress(InputStream is) throws IOException;
+}
@@ -1,9 +1,10 @@
 package services;
 
+import java.io.File;
+
 import core.*;
 import splitter.*;
 import stitcher.*;
-import gui.MainPanel;
 
 /**
  * @author federico
@@ -54,12 +55,12 @@ public class JobFactoryService {
 	 * @param compress true se verr&agrave; compressato
 	 * @param crypt    true se verr&agrave; cifrato
 	 * @param password stringa password se verr&agrave; cifrato
-	 * @param main     oggetto MainPanel per stampare gli errori come popup grafico
+	 * @param main     listener che riceve gli errori
 	 * @return oggetto specializzato che implementa l'interfaccia ISplitter ->
 	 *         quindi pu&ograve; andare nella coda dei job
 	 */
 	public static ISplitter retrieveJob(String sf, String df, int parts, boolean compress, boolean crypt,
-			String password, MainPanel main) {
+			String password, IJobListener main) {
 		if (crypt && compress)
 			return new SizeSplitterCompressCrypt(sf, df, parts, password, main);
 		else if (crypt && !compress)
@@ -70,6 +71,28 @@ public class JobFactoryService {
 			return new SizeSplitter(sf, df, parts, main);
 	}
 
+	/**
+	 * Metodo identico a
+	 * {@link #retrieveJob(String, String, int, boolean, boolean, String, IJobListener)}
+	 * ma con la scelta del codec di compressione e del suo livello.
+	 * 
+	 * @param sf       path del file sorgente
+	 * @param df       path della cartella di destinazione
+	 * @param parts    numero di parti in cui dividere il file
+	 * @param compress true se verr&agrave; compressato
+	 * @param crypt    true se verr&agrave; cifrato
+	 * @param password stringa password se verr&agrave; cifrato
+	 * @param codec    nome del codec di services>CodecService (gzip, deflate, lz)
+	 * @param level    livello di compressione da 1 a 9, -1 per quello di default
+	 * @param main     listener che riceve gli errori
+	 * @return oggetto specializzato che implementa l'interfaccia ISplitter, null se
+	 *         il codec o il livello non sono validi
+	 */
+	public static ISplitter retrieveJob(String sf, String df, int parts, boolean compress, boolean crypt,
+			String password, String codec, int level, IJobListener main) {
+		return withCodec(retrieveJob(sf, df, parts, compress, crypt, password, main), codec, level, main);
+	}
+
 	/**
 	 * Metodo di creazione di un oggetto specializzato per dividere un file per una
 	 * data dimensione di byte.
@@ -81,12 +104,12 @@ public class JobFactoryService {
 	 * @param compress true se verr&agrave; compressato
 	 * @param crypt    true se verr&agrave; cifrato
 	 * @param password stringa password se verràagrave;agrave; cifrato
-	 * @param main     oggetto MainPanel per stampare gli errori come popup grafico
+	 * @param main     listener che riceve gli errori
 	 * @return oggetto specializzato che implementa l'interfaccia ISplitter ->
 	 *         quindi pu&ograve; andare nella coda dei job
 	 */
 	public static ISplitter retrieveJob(String sf, String df, int parts, String bytes, boolean compress, boolean crypt,
-			String password, MainPanel main) {
+			String password, IJobListener main) {
 		if (crypt && compress)
 			return new ChunkSizeSplitterCompressCrypt(sf, df, parts, getBytesDim(bytes), password, main);
 		else if (crypt && !compress)
@@ -97,6 +120,53 @@ public class JobFactoryService {
 			return new ChunkSizeSplitter(sf, df, parts, getBytesDim(bytes), main);
 	}
 
+	/**
+	 * Metodo identico a
+	 * {@link #retrieveJob(String, String, int, String, boolean, boolean, String, IJobListener)}
+	 * ma con la scelta del codec di compressione e del suo livello.
+	 * 
+	 * @param sf       path del file sorgente
+	 * @param df       path della cartella di destinazione
+	 * @param parts    numero di parti in cui dividere il file
+	 * @param bytes    unit&agrave; di grandezza dei byte
+	 * @param compress true se verr&agrave; compressato
+	 * @param crypt    true se verr&agrave; cifrato
+	 * @param password stringa password se verr&agrave; cifrato
+	 * @param codec    nome del codec di services>CodecService (gzip, deflate, lz)
+	 * @param level    livello di compressione da 1 a 9, -1 per quello di default
+	 * @param main     listener che riceve gli errori
+	 * @return oggetto specializzato che implementa l'interfaccia ISplitter, null se
+	 *         il codec o il livello non sono validi
+	 */
+	public static ISplitter retrieveJob(String sf, String df, int parts, String bytes, boolean compress, boolean crypt,
+			String password, String codec, int level, IJobListener main) {
+		return withCodec(retrieveJob(sf, df, parts, bytes, compress, crypt, password, main), codec, level, main);
+	}
+
+	/**
+	 * Metodo che imposta codec e livello di compressione su uno splitter appena
+	 * creato.
+	 * 
+	 * @param job   splitter creato dalla factory
+	 * @param codec nome del codec
+	 * @param level livello di compressione
+	 * @param main  listener che riceve gli errori
+	 * @return lo splitter stesso, null se il codec o il livello non sono validi
+	 */
+	private static ISplitter withCodec(ISplitter job, String codec, int level, IJobListener main) {
+		ICodec c = CodecService.getCodec(codec);
+		if (c == null) {
+			main.printError("Unknown codec " + codec);
+			return null;
+		}
+		if (!CodecService.isValidLevel(level)) {
+			main.printError("Compression level must be between 1 and 9");
+			return null;
+		}
+		((AbstractSplitter) job).setCodec(c, level);
+		return job;
+	}
+
 	/**
 	 * Metodo di creazione di un oggetto specializzato per riunire le parti in un
 	 * unico file.
@@ -106,12 +176,12 @@ public class JobFactoryService {
 	 * @param totParts numero di parti in cui dividere il file
 	 * @param compress true se verr&agrave; compressato
 	 * @param crypt    true se verr&agrave; cifrato
-	 * @param main     oggetto MainPanel per stampare gli errori come popup grafico
+	 * @param main     listener che riceve gli errori
 	 * @return oggetto specializzato che implementa l'interfaccia ISplitter ->
 	 *         quindi pu&ograve; andare nella coda dei job
 	 */
 	public static ISplitter retrieveJob(String name, String sf, String df, int part, int totParts, boolean compress,
-			boolean crypt, MainPanel main) {
+			boolean crypt, IJobListener main) {
 		if (crypt && compress)
 			return new StitcherCompressCrypt(name, sf, df, part, totParts, main);
 		else if (crypt && !compress)
@@ -122,4 +192,57 @@ public class JobFactoryService {
 			return new Stitcher(name, sf, df, part, totParts, main);
 	}
 
+	/**
+	 * Metodo identico a
+	 * {@link #retrieveJob(String, String, String, int, int, boolean, boolean, IJobListener)}
+	 * ma con il codec letto dall'Header della prima parte.
+	 * 
+	 * @param sf       path del file sorgente
+	 * @param df       path della cartella di destinazione
+	 * @param totParts numero di parti in cui dividere il file
+	 * @param compress true se verr&agrave; compressato
+	 * @param crypt    true se verr&agrave; cifrato
+	 * @param codec    identificativo del codec salvato nell'Header
+	 * @param main     listener che riceve gli errori
+	 * @return oggetto specializzato che implementa l'interfaccia ISplitter, null se
+	 *         il codec non &egrave; conosciuto
+	 */
+	public static ISplitter retrieveJob(String name, String sf, String df, int part, int totParts, boolean compress,
+			boolean crypt, int codec, IJobListener main) {
+		ICodec c = CodecService.getCodec(codec);
+		if (c == null) {
+			main.printError("Unknown codec " + codec);
+			return null;
+		}
+		ISplitter job = retrieveJob(name, sf, df, part, totParts, compress, crypt, main);
+		((AbstractStitcher) job).setCodec(c);
+		return job;
+	}
+
+	/**
+	 * Metodo di creazione di un job che controlla le parti di una divisione senza
+	 * riunirle. Le parti vengono lette dallo Stitcher specializzato della
+	 * divisione, creato con
+	 * {@link #retrieveJob(String, String, String, int, int, boolean, boolean, int, IJobListener)}.
+	 * 
+	 * @param name     nome del file originale
+	 * @param sf       path della parte sorgente
+	 * @param part     numero della parte
+	 * @param totParts numero delle parti totali della divisione
+	 * @param compress true se le parti sono compresse
+	 * @param crypt    true se le parti sono cifrate
+	 * @param codec    identificativo del codec salvato nell'Header
+	 * @param main     listener che riceve gli errori
+	 * @return job di controllo che implementa l'interfaccia ISplitter, null se il
+	 *         codec non &egrave; conosciuto
+	 */
+	public static ISplitter retrieveVerifier(String name, String sf, int part, int totParts, boolean compress,
+			boolean crypt, int codec, IJobListener main) {
+		String df = new File(sf).getAbsoluteFile().getParent();
+		ISplitter decoder = retrieveJob(name, sf, df, part, totParts, compress, crypt, codec, main);
+		if (decoder == null)
+			return null;
+		return new Verifier((Stitcher) decoder, main);
+	}
+
 }
@@ -0,0 +1,342 @@
+package services;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * @author federico
+ * Codec LZ veloce senza dipendenze esterne. I dati vengono divisi in blocchi da 64KB e ogni
+ * blocco viene compresso con un LZ77 greedy a tabella hash con sequenze nel formato dei blocchi
+ * LZ4 (token, letterali, offset di 2 byte, lunghezza del match). Comprime meno di gzip ma
+ * &egrave; molto pi&ugrave; veloce sia in compressione che in decompressione. I blocchi che
+ * non si comprimono vengono salvati cos&igrave; come sono.
+ * Formato di ogni blocco: [byte tipo][int lunghezza originale][int lunghezza salvata][dati],
+ * lo stream termina con un blocco di tipo END.
+ */
+public class LzCodec implements ICodec {
+	private static final int BLOCK_SIZE = 64 * 1024; // 64KB
+	private static final int HASH_BITS = 14;
+	private static final int MIN_MATCH = 4;
+	private static final int MAX_OFFSET = 65535;
+	private static final int LAST_LITERALS = 5; // gli ultimi byte del blocco sono sempre letterali
+	private static final int MF_LIMIT = 12; // nessun match inizia negli ultimi 12 byte
+	private static final byte END = 0, LZ = 1, RAW = 2;
+
+	@Override
+	public int getId() {
+		return CodecService.LZ;
+	}
+
+	@Override
+	public String getName() {
+		return "lz";
+	}
+
+	@Override
+	public OutputStream compress(OutputStream os, int level) throws IOException {
+		return new LzOutputStream(os);
+	}
+
+	@Override
+	public InputStream decompress(InputStream is) throws IOException {
+		return new LzInputStream(is);
+	}
+
+	/**
+	 * Metodo che legge 4 byte little endian.
+	 */
+	private static int readInt(byte[] b, int i) {
+		return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+	}
+
+	/**
+	 * Metodo che scrive una lunghezza nel formato a byte 255 di LZ4.
+	 */
+	private static int writeLength(byte[] dst, int op, int len) {
+		while (len >= 255) {
+			dst[op++] = (byte) 255;
+			len -= 255;
+		}
+		dst[op++] = (byte) len;
+		return op;
+	}
+
+	/**
+	 * Metodo che comprime un blocco.
+	 *
+	 * @param src   byte del blocco
+	 * @param len   numero di byte validi
+	 * @param dst   buffer di destinazione, almeno {@link #maxCompressedLength(int)}
+	 * @param table tabella hash di lavoro
+	 * @return numero di byte compressi
+	 */
+	static int compressBlock(byte[] src, int len, byte[] dst, int[] table) {
+		Arrays.fill(table, -1);
+		int ip = 0, anchor = 0, op = 0;
+		int limit = len - MF_LIMIT;
+		while (ip < limit) {
+			int seq = readInt(src, ip);
+			int h = (seq * -1640531535) >>> (32 - HASH_BITS);
+			int ref = table[h];
+			table[h] = ip;
+			if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != seq) {
+				ip++;
+				continue;
+			}
+			int matchLen = MIN_MATCH;
+			int matchLimit = len - LAST_LITERALS;
+			while (ip + matchLen < matchLimit && src[ref + matchLen] == src[ip + matchLen])
+				matchLen++;
+
+			int litLen = ip - anchor;
+			int token = op++;
+			if (litLen >= 15)
+				op = writeLength(dst, op, litLen - 15);
+			System.arraycopy(src, anchor, dst, op, litLen);
+			op += litLen;
+			int offset = ip - ref;
+			dst[op++] = (byte) offset;
+			dst[op++] = (byte) (offset >>> 8);
+			int ml = matchLen - MIN_MATCH;
+			if (ml >= 15)
+				op = writeLength(dst, op, ml - 15);
+			dst[token] = (byte) (Math.min(litLen, 15) << 4 | Math.min(ml, 15));
+			ip += matchLen;
+			anchor = ip;
+		}
+		// ultima sequenza: solo letterali
+		int litLen = len - anchor;
+		int token = op++;
+		if (litLen >= 15)
+			op = writeLength(dst, op, litLen - 15);
+		System.arraycopy(src, anchor, dst, op, litLen);
+		op += litLen;
+		dst[token] = (byte) (Math.min(litLen, 15) << 4);
+		return op;
+	}
+
+	/**
+	 * Metodo che decomprime un blocco.
+	 *
+	 * @param src    byte compressi
+	 * @param srcLen numero di byte compressi
+	 * @param dst    buffer di destinazione
+	 * @param dstLen lunghezza originale del blocco
+	 * @throws IOException se il blocco &egrave; corrotto
+	 */
+	static void decompressBlock(byte[] src, int srcLen, byte[] dst, int dstLen) throws IOException {
+		int ip = 0, op = 0;
+		try {
+			while (ip < srcLen) {
+				int token = src[ip++] & 0xFF;
+				int litLen = token >>> 4;
+				if (litLen == 15) {
+					int b;
+					do {
+						b = src[ip++] & 0xFF;
+						litLen += b;
+					} while (b == 255);
+				}
+				System.arraycopy(src, ip, dst, op, litLen);
+				ip += litLen;
+				op += litLen;
+				if (ip >= srcLen)
+					break; // ultima sequenza
+				int offset = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+				ip += 2;
+				int matchLen = token & 15;
+				if (matchLen == 15) {
+					int b;
+					do {
+						b = src[ip++] & 0xFF;
+						matchLen += b;
+					} while (b == 255);
+				}
+				matchLen += MIN_MATCH;
+				int ref = op - offset;
+				if (offset == 0 || ref < 0 || op + matchLen > dstLen)
+					throw new IOException("Corrupted LZ block");
+				if (offset >= matchLen)
+					System.arraycopy(dst, ref, dst, op, matchLen);
+				else
+					for (int i = 0; i < matchLen; i++) // match sovrapposto
+						dst[op + i] = dst[ref + i];
+				op += matchLen;
+			}
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("Corrupted LZ block", e);
+		}
+		if (op != dstLen)
+			throw new IOException("Corrupted LZ block");
+	}
+
+	/**
+	 * Metodo che calcola la dimensione massima di un blocco compresso.
+	 *
+	 * @param len lunghezza del blocco
+	 * @return dimensione massima in byte
+	 */
+	static int maxCompressedLength(int len) {
+		return len + len / 255 + 16;
+	}
+
+	/**
+	 * Stream di compressione LZ a blocchi.
+	 */
+	private static class LzOutputStream extends FilterOutputStream {
+		private final DataOutputStream dos;
+		private final byte[] block = new byte[BLOCK_SIZE];
+		private final byte[] compressed = new byte[maxCompressedLength(BLOCK_SIZE)];
+		private final int[] table = new int[1 << HASH_BITS];
+		private int blockLen = 0;
+		private boolean closed = false;
+
+		LzOutputStream(OutputStream out) {
+			super(out);
+			dos = new DataOutputStream(out);
+		}
+
+		private void flushBlock() throws IOException {
+			if (blockLen == 0)
+				return;
+			int n = compressBlock(block, blockLen, compressed, table);
+			if (n < blockLen) {
+				dos.writeByte(LZ);
+				dos.writeInt(blockLen);
+				dos.writeInt(n);
+				dos.write(compressed, 0, n);
+			} else {
+				dos.writeByte(RAW);
+				dos.writeInt(blockLen);
+				dos.writeInt(blockLen);
+				dos.write(block, 0, blockLen);
+			}
+			blockLen = 0;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (closed)
+				throw new IOException("Stream closed");
+			while (len > 0) {
+				int n = Math.min(len, BLOCK_SIZE - blockLen);
+				System.arraycopy(b, off, block, blockLen, n);
+				blockLen += n;
+				off += n;
+				len -= n;
+				if (blockLen == BLOCK_SIZE)
+					flushBlock();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed)
+				return;
+			closed = true;
+			try {
+				flushBlock();
+				dos.writeByte(END);
+				dos.flush();
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * Stream di decompressione LZ a blocchi.
+	 */
+	private static class LzInputStream extends FilterInputStream {
+		private final DataInputStream dis;
+		private final byte[] block = new byte[BLOCK_SIZE];
+		private final byte[] compressed = new byte[maxCompressedLength(BLOCK_SIZE)];
+		private int pos = 0, limit = 0;
+		private boolean eof = false;
+
+		LzInputStream(InputStream in) {
+			super(in);
+			dis = new DataInputStream(in);
+		}
+
+		private boolean nextBlock() throws IOException {
+			if (eof)
+				return false;
+			int type = dis.read();
+			if (type == END) {
+				eof = true;
+				return false;
+			}
+			if (type < 0)
+				throw new EOFException("Unexpected end of LZ stream");
+			int rawLen = dis.readInt();
+			int storedLen = dis.readInt();
+			if (rawLen <= 0 || rawLen > BLOCK_SIZE || storedLen < 0 || storedLen > compressed.length)
+				throw new IOException("Corrupted LZ block");
+			if (type == RAW) {
+				if (storedLen != rawLen)
+					throw new IOException("Corrupted LZ block");
+				dis.readFully(block, 0, rawLen);
+			} else if (type == LZ) {
+				dis.readFully(compressed, 0, storedLen);
+				decompressBlock(compressed, storedLen, block, rawLen);
+			} else
+				throw new IOException("Corrupted LZ block");
+			pos = 0;
+			limit = rawLen;
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (pos == limit && !nextBlock())
+				return -1;
+			return block[pos++] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			if (pos == limit && !nextBlock())
+				return -1;
+			int n = Math.min(len, limit - pos);
+			System.arraycopy(block, pos, b, off, n);
+			pos += n;
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return limit - pos;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = 0;
+			while (skipped < n && (pos < limit || nextBlock())) {
+				int k = (int) Math.min(n - skipped, limit - pos);
+				pos += k;
+				skipped += k;
+			}
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
+}
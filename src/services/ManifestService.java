@@ -0,0 +1,166 @@
+package services;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+import core.IJobListener;
+import core.Manifest;
+
+/**
+ * @author federico
+ * Classe che espone il servizio di scrittura e lettura del manifest di una divisione, un
+ * file &lt;nome&gt;{@value #MANIFEST_EXTENSION} scritto accanto alle parti alla fine dello
+ * split. Il manifest &egrave; binario: {@link #MANIFEST_MAGIC}, un byte di versione, le
+ * informazioni comuni con il CRC32C dell'intero file, un record per ogni parte e il CRC32C di tutti i byte precedenti,
+ * cos&igrave; un manifest troncato o modificato viene ignorato e si torna a leggere gli
+ * Header delle parti.
+ */
+public class ManifestService {
+	/** "FSPM": primi byte dei manifest */
+	public static final int MANIFEST_MAGIC = 0x4653504D;
+	public static final byte MANIFEST_VERSION = 2; // 2: CRC32C dell'intero file
+	public static final String MANIFEST_EXTENSION = ".manifest";
+	private static final int FLAG_COMPRESS = 1, FLAG_ENCRYPT = 2;
+	private static final long MAX_MANIFEST_DIM = 16L * 1024 * 1024; // 16MB, oltre 100000 parti
+
+	/**
+	 * Getter del path del manifest di una divisione
+	 *
+	 * @param folder cartella delle parti
+	 * @param name   nome del file originale
+	 * @return path del manifest
+	 */
+	public static Path getManifestPath(String folder, String name) {
+		return Paths.get(folder, name + MANIFEST_EXTENSION);
+	}
+
+	/**
+	 * Metodo che scrive il manifest nella cartella delle parti. Il manifest viene
+	 * scritto in un file temporaneo e poi rinominato, cos&igrave; chi lo legge
+	 * trova il manifest precedente o quello nuovo completo.
+	 *
+	 * @param m      manifest da scrivere
+	 * @param folder cartella delle parti
+	 * @param main   listener che riceve gli errori
+	 */
+	public static void writeManifest(Manifest m, String folder, IJobListener main) {
+		Path path = getManifestPath(folder, m.getName());
+		Path tmp = Paths.get(path + ".tmp");
+		CRC32C crc = new CRC32C();
+		try {
+			try (DataOutputStream out = new DataOutputStream(
+					new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(tmp.toFile())), crc))) {
+				out.writeInt(MANIFEST_MAGIC);
+				out.writeByte(MANIFEST_VERSION);
+				out.writeLong(m.getSetId());
+				out.writeInt(m.getTotParts());
+				out.writeByte((m.isCompress() ? FLAG_COMPRESS : 0) | (m.isEncrypt() ? FLAG_ENCRYPT : 0));
+				out.writeByte(m.getCodec());
+				out.writeInt(m.getFileChecksum());
+				writeString(out, m.getName());
+				for (int i = 1; i <= m.getTotParts(); i++) {
+					writeString(out, m.getFile(i));
+					out.writeLong(m.getOffset(i));
+					out.writeLong(m.getLength(i));
+					out.writeLong(m.getStoredLength(i));
+					out.writeLong(m.getCompressedLength(i));
+					out.writeInt(m.getChecksum(i));
+				}
+				out.writeInt((int) crc.getValue());
+			}
+			Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			tmp.toFile().delete();
+			main.printError("Cannot write manifest " + path);
+		}
+	}
+
+	/**
+	 * Metodo che scrive una stringa UTF-8 preceduta dalla sua lunghezza su 2 byte.
+	 *
+	 * @param out stream del manifest
+	 * @param s   stringa da scrivere
+	 * @throws IOException in caso di errore di scrittura o stringa troppo lunga
+	 */
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		if (b.length > 0xFFFF)
+			throw new IOException("File name too long");
+		out.writeShort(b.length);
+		out.write(b);
+	}
+
+	/**
+	 * Metodo che legge una stringa scritta da
+	 * {@link #writeString(DataOutputStream, String)}.
+	 *
+	 * @param buf byte del manifest
+	 * @return stringa letta
+	 */
+	private static String readString(ByteBuffer buf) {
+		int len = buf.getShort() & 0xFFFF;
+		String s = new String(buf.array(), buf.position(), len, StandardCharsets.UTF_8);
+		buf.position(buf.position() + len);
+		return s;
+	}
+
+	/**
+	 * Metodo che legge il manifest senza stampare errori, come
+	 * HeaderService.probeHeader() per le parti. Il file viene caricato in memoria
+	 * solo se inizia con {@link #MANIFEST_MAGIC}, cos&igrave; passare una parte
+	 * non costa la lettura di tutta la parte.
+	 *
+	 * @param path path del manifest
+	 * @return manifest letto, null se il file non esiste, &egrave; corrotto o
+	 *         &egrave; di una versione successiva
+	 */
+	public static Manifest readManifest(Path path) {
+		try {
+			if (!Files.isRegularFile(path) || Files.size(path) > MAX_MANIFEST_DIM)
+				return null;
+			try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+				if (in.readInt() != MANIFEST_MAGIC)
+					return null;
+			}
+			byte[] bytes = Files.readAllBytes(path);
+			if (bytes.length < 4 + 1 + 4)
+				return null;
+			CRC32C crc = new CRC32C();
+			crc.update(bytes, 0, bytes.length - 4);
+			ByteBuffer buf = ByteBuffer.wrap(bytes);
+			if (buf.getInt(bytes.length - 4) != (int) crc.getValue() || buf.getInt() != MANIFEST_MAGIC)
+				return null;
+			int version = buf.get();
+			if (version < 1 || version > MANIFEST_VERSION)
+				return null;
+			long setId = buf.getLong();
+			int totParts = buf.getInt();
+			int flags = buf.get();
+			int codec = buf.get() & 0xFF;
+			int fileChecksum = version >= 2 ? buf.getInt() : 0;
+			if (totParts < 1 || totParts > bytes.length / (2 + 4 * 8 + 4)) // record di una parte
+				return null;
+			Manifest m = new Manifest(setId, readString(buf), totParts, (flags & FLAG_COMPRESS) != 0,
+					(flags & FLAG_ENCRYPT) != 0, codec);
+			for (int i = 1; i <= totParts; i++)
+				m.setPart(i, readString(buf), buf.getLong(), buf.getLong(), buf.getLong(), buf.getLong(),
+						buf.getInt());
+			m.setFileChecksum(fileChecksum);
+			return buf.remaining() == 4 ? m : null;
+		} catch (IOException | BufferUnderflowException | IndexOutOfBoundsException e) {
+			return null;
+		}
+	}
+}
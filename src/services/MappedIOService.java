@@ -0,0 +1,136 @@
+package services;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Semaphore;
+import java.util.zip.Checksum;
+
+/**
+ * @author federico
+ * Classe che espone il servizio di copia tramite memory mapping: il file sorgente e quello
+ * di destinazione vengono mappati a finestre di dimensione fissa con FileChannel.map() e i byte
+ * vengono copiati da una finestra all'altra senza chiamate read/write. Ogni finestra viene
+ * smappata appena finita la copia, ed il numero di finestre mappate contemporaneamente da tutti
+ * i job &egrave; limitato, cos&igrave; lo spazio di indirizzamento usato resta limitato.
+ */
+public class MappedIOService {
+	private static final int MAX_MAPPED_WINDOWS = 32;
+	private static final Semaphore windows = new Semaphore(MAX_MAPPED_WINDOWS, true);
+	private static volatile long windowSize = 64 * 1024 * 1024; // 64MB
+	private static final Object unsafe;
+	private static final Method invokeCleaner;
+
+	static {
+		Object u = null;
+		Method m = null;
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field f = unsafeClass.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			u = f.get(null);
+			m = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// senza invokeCleaner le finestre vengono liberate dal garbage collector
+		}
+		unsafe = u;
+		invokeCleaner = m;
+	}
+
+	/**
+	 * Getter della dimensione delle finestre mappate
+	 *
+	 * @return dimensione finestra in byte
+	 */
+	public static long getWindowSize() {
+		return windowSize;
+	}
+
+	/**
+	 * Setter della dimensione delle finestre mappate. Ogni copia tiene mappate al
+	 * massimo due finestre (sorgente e destinazione) alla volta.
+	 *
+	 * @param size dimensione finestra in byte, compresa tra 64KB e 1GB
+	 */
+	public static void setWindowSize(long size) {
+		windowSize = Math.max(64 * 1024, Math.min(size, 1024 * 1024 * 1024));
+	}
+
+	/**
+	 * Metodo che smappa subito una finestra invece di aspettare il garbage
+	 * collector.
+	 *
+	 * @param buffer finestra da smappare
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		if (invokeCleaner == null)
+			return;
+		try {
+			invokeCleaner.invoke(unsafe, buffer);
+		} catch (ReflectiveOperationException e) {
+			// la finestra verr&agrave; liberata dal garbage collector
+		}
+	}
+
+	/**
+	 * Metodo che copia count byte dal file sorgente a quello di destinazione
+	 * mappando entrambi a finestre di {@link #getWindowSize()} byte. Il file di
+	 * destinazione viene allungato se necessario, quindi il suo canale deve essere
+	 * aperto sia in lettura che in scrittura.
+	 *
+	 * @param src     canale del file sorgente
+	 * @param srcPos  posizione nel file sorgente da cui iniziare a copiare
+	 * @param count   numero di byte da copiare
+	 * @param dest    canale del file di destinazione (lettura e scrittura)
+	 * @param destPos posizione nel file di destinazione da cui iniziare a scrivere
+	 * @throws IOException in caso di errore di mappatura
+	 */
+	public static void copy(FileChannel src, long srcPos, long count, FileChannel dest, long destPos)
+			throws IOException {
+		copy(src, srcPos, count, dest, destPos, null);
+	}
+
+	/**
+	 * Metodo identico a {@link #copy(FileChannel, long, long, FileChannel, long)}
+	 * che aggiorna anche il checksum con i byte copiati, leggendoli dalla finestra
+	 * gi&agrave; mappata.
+	 *
+	 * @param src     canale del file sorgente
+	 * @param srcPos  posizione nel file sorgente da cui iniziare a copiare
+	 * @param count   numero di byte da copiare
+	 * @param dest    canale del file di destinazione (lettura e scrittura)
+	 * @param destPos posizione nel file di destinazione da cui iniziare a scrivere
+	 * @param crc     checksum da aggiornare, null per nessun checksum
+	 * @throws IOException in caso di errore di mappatura
+	 */
+	public static void copy(FileChannel src, long srcPos, long count, FileChannel dest, long destPos, Checksum crc)
+			throws IOException {
+		long window = windowSize;
+		long remaining = Math.min(count, src.size() - srcPos);
+		while (remaining > 0) {
+			long len = Math.min(window, remaining);
+			windows.acquireUninterruptibly(2);
+			MappedByteBuffer in = null, out = null;
+			try {
+				in = src.map(FileChannel.MapMode.READ_ONLY, srcPos, len);
+				out = dest.map(FileChannel.MapMode.READ_WRITE, destPos, len);
+				if (crc != null)
+					crc.update(in.duplicate());
+				out.put(in);
+			} finally {
+				if (in != null)
+					unmap(in);
+				if (out != null)
+					unmap(out);
+				windows.release(2);
+			}
+			srcPos += len;
+			destPos += len;
+			remaining -= len;
+		}
+		dest.position(destPos);
+	}
+}
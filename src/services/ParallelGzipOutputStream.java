@@ -0,0 +1,230 @@
+package services;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * @author federico
+ * Stream di compressione gzip che comprime in parallelo (come pigz). I dati vengono divisi in
+ * blocchi di dimensione fissa e ogni blocco viene compresso con un Deflater raw da un pool di
+ * thread condiviso, usando come dizionario gli ultimi 32KB del blocco precedente. I blocchi
+ * chiusi con SYNC_FLUSH vengono scritti nell'ordine originale e formano un unico stream deflate,
+ * quindi il risultato &egrave; un normale membro gzip leggibile da GZIPInputStream e da gunzip.
+ * I blocchi che non si comprimono vengono salvati come blocchi deflate stored, che in lettura
+ * vengono solo copiati.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+	private static final int BLOCK_SIZE = 128 * 1024; // 128KB
+	private static final int DICT_SIZE = 32 * 1024; // finestra deflate
+	private static final int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+	// limita la memoria usata quando pi&ugrave; parti vengono compresse insieme
+	private static final int MAX_IN_FLIGHT = Math.min(THREADS * 2, 32);
+	private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+	private static final ExecutorService pool = Executors.newFixedThreadPool(THREADS, r -> {
+		Thread t = new Thread(r, "gzip-block");
+		t.setDaemon(true);
+		return t;
+	});
+	private static final ThreadLocal<Deflater[]> deflaters = ThreadLocal.withInitial(() -> new Deflater[10]);
+
+	private final OutputStream out;
+	private final int level;
+	private final CRC32 crc = new CRC32();
+	private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+	private byte[] block = new byte[BLOCK_SIZE];
+	private int blockLen = 0;
+	private byte[] dictionary = null;
+	private long totalIn = 0;
+	private boolean closed = false;
+
+	/**
+	 * Costruttore della classe ParallelGzipOutputStream con il livello di
+	 * compressione di default.
+	 *
+	 * @param out stream su cui scrivere il membro gzip
+	 * @throws IOException in caso di errore di scrittura dell'intestazione gzip
+	 */
+	public ParallelGzipOutputStream(OutputStream out) throws IOException {
+		this(out, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * Costruttore della classe ParallelGzipOutputStream che scrive subito
+	 * l'intestazione gzip.
+	 *
+	 * @param out   stream su cui scrivere il membro gzip
+	 * @param level livello di compressione da 1 a 9 (-1 per quello di default)
+	 * @throws IOException in caso di errore di scrittura dell'intestazione gzip
+	 */
+	public ParallelGzipOutputStream(OutputStream out, int level) throws IOException {
+		this.out = out;
+		this.level = level;
+		out.write(GZIP_HEADER);
+	}
+
+	/**
+	 * Metodo che comprime un blocco con il Deflater raw del thread corrente.
+	 *
+	 * @param data  byte del blocco
+	 * @param len   numero di byte validi del blocco
+	 * @param dict  ultimi byte del blocco precedente, null per il primo blocco
+	 * @param last  true per l'ultimo blocco, che chiude lo stream deflate
+	 * @param level livello di compressione
+	 * @return byte compressi del blocco
+	 */
+	private static byte[] deflateBlock(byte[] data, int len, byte[] dict, boolean last, int level) {
+		Deflater[] byLevel = deflaters.get();
+		int slot = level < 0 ? 0 : level;
+		if (byLevel[slot] == null)
+			byLevel[slot] = new Deflater(level, true);
+		Deflater def = byLevel[slot];
+		def.reset();
+		if (dict != null)
+			def.setDictionary(dict);
+		def.setInput(data, 0, len);
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(len / 2 + 64);
+		byte[] buf = new byte[BLOCK_SIZE / 2];
+		if (last) {
+			def.finish();
+			while (!def.finished()) {
+				int n = def.deflate(buf);
+				bos.write(buf, 0, n);
+			}
+		} else {
+			int n;
+			do {
+				n = def.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+				bos.write(buf, 0, n);
+			} while (n == buf.length);
+		}
+		if (len > 0 && bos.size() >= len - (len >> 6))
+			return storeBlock(data, len, last); // blocco incomprimibile
+		return bos.toByteArray();
+	}
+
+	/**
+	 * Metodo che scrive un blocco senza comprimerlo usando i blocchi deflate di
+	 * tipo stored (BTYPE 00, massimo 65535 byte ciascuno). Il blocco precedente
+	 * termina sempre allineato al byte, quindi i blocchi stored possono essere
+	 * messi in mezzo allo stream e l'Inflater in lettura si limita a copiarli.
+	 *
+	 * @param data byte del blocco
+	 * @param len  numero di byte validi del blocco
+	 * @param last true per l'ultimo blocco, che chiude lo stream deflate
+	 * @return blocco in formato stored
+	 */
+	private static byte[] storeBlock(byte[] data, int len, boolean last) {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(len + (len / 65535 + 1) * 5);
+		int off = 0;
+		do {
+			int n = Math.min(65535, len - off);
+			bos.write(last && off + n == len ? 1 : 0); // BFINAL e BTYPE 00
+			bos.write(n & 0xFF);
+			bos.write(n >>> 8);
+			bos.write(~n & 0xFF);
+			bos.write((~n >>> 8) & 0xFF);
+			bos.write(data, off, n);
+			off += n;
+		} while (off < len);
+		return bos.toByteArray();
+	}
+
+	/**
+	 * Metodo che manda il blocco corrente al pool di compressione e scrive i blocchi
+	 * gi&agrave; pronti mantenendo al massimo MAX_IN_FLIGHT blocchi in memoria.
+	 *
+	 * @param last true se &egrave; l'ultimo blocco
+	 * @throws IOException in caso di errore di compressione o di scrittura
+	 */
+	private void submitBlock(boolean last) throws IOException {
+		final byte[] data = block;
+		final int len = blockLen;
+		final byte[] dict = dictionary;
+		final int lvl = level;
+		pending.add(pool.submit(() -> deflateBlock(data, len, dict, last, lvl)));
+
+		if (len >= DICT_SIZE)
+			dictionary = Arrays.copyOfRange(data, len - DICT_SIZE, len);
+		else if (len > 0) {
+			// blocco corto: il dizionario sono gli ultimi 32KB di tutto lo stream
+			byte[] prev = dictionary == null ? new byte[0] : dictionary;
+			int keep = Math.min(prev.length, DICT_SIZE - len);
+			byte[] d = new byte[keep + len];
+			System.arraycopy(prev, prev.length - keep, d, 0, keep);
+			System.arraycopy(data, 0, d, keep, len);
+			dictionary = d;
+		}
+		block = new byte[BLOCK_SIZE];
+		blockLen = 0;
+
+		while (pending.size() > (last ? 0 : MAX_IN_FLIGHT))
+			writeCompleted();
+	}
+
+	/**
+	 * Metodo che aspetta il blocco pi&ugrave; vecchio in coda e lo scrive.
+	 *
+	 * @throws IOException in caso di errore di compressione o di scrittura
+	 */
+	private void writeCompleted() throws IOException {
+		try {
+			out.write(pending.poll().get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Compression interrupted");
+		} catch (ExecutionException e) {
+			throw new IOException("Compression error", e.getCause());
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (closed)
+			throw new IOException("Stream closed");
+		crc.update(b, off, len);
+		totalIn += len;
+		while (len > 0) {
+			int n = Math.min(len, BLOCK_SIZE - blockLen);
+			System.arraycopy(b, off, block, blockLen, n);
+			blockLen += n;
+			off += n;
+			len -= n;
+			if (blockLen == BLOCK_SIZE)
+				submitBlock(false);
+		}
+	}
+
+	/**
+	 * Metodo che comprime l'ultimo blocco, scrive tutti i blocchi in coda e la
+	 * coda gzip (CRC32 e lunghezza originale) e chiude lo stream sottostante.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		try {
+			submitBlock(true);
+			long c = crc.getValue();
+			out.write(new byte[] { (byte) c, (byte) (c >> 8), (byte) (c >> 16), (byte) (c >> 24), (byte) totalIn,
+					(byte) (totalIn >> 8), (byte) (totalIn >> 16), (byte) (totalIn >> 24) });
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package services;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import javax.crypto.SecretKey;
+
+/**
+ * @author federico
+ * Stream di decifratura dei segmenti scritti da services>SegmentedEncryptOutputStream. I segmenti
+ * vengono letti in anticipo e decifrati in parallelo dal pool di services>EncryptService, al
+ * massimo MAX_IN_FLIGHT alla volta, quindi la memoria usata non dipende dalla dimensione della
+ * parte. Ogni segmento viene restituito solo dopo la verifica del suo tag.
+ */
+public class SegmentedDecryptInputStream extends InputStream {
+	private static final int MAX_IN_FLIGHT = Math.min(2 * Runtime.getRuntime().availableProcessors(), 8);
+
+	private final InputStream in;
+	private final SecretKey key;
+	private final byte[] noncePrefix;
+	private final byte[] aad;
+	private final int chunkSize;
+	private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+	private byte[] ahead = null;
+	private boolean inputDone = false;
+	private long index = 0;
+	private byte[] plain = new byte[0];
+	private int pos = 0;
+
+	/**
+	 * Costruttore della classe SegmentedDecryptInputStream. L'intestazione dei
+	 * segmenti deve essere gi&agrave; stata letta da
+	 * EncryptService.getDecryptStream().
+	 *
+	 * @param in          stream posizionato sul primo segmento
+	 * @param key         chiave AES
+	 * @param noncePrefix prefisso dei nonce letto dall'intestazione
+	 * @param aad         dati autenticati della parte, null per nessuno
+	 * @param segmentSize byte in chiaro di ogni segmento
+	 */
+	SegmentedDecryptInputStream(InputStream in, SecretKey key, byte[] noncePrefix, byte[] aad, int segmentSize) {
+		this.in = in;
+		this.key = key;
+		this.noncePrefix = noncePrefix;
+		this.aad = aad;
+		this.chunkSize = segmentSize + EncryptService.getTagDim();
+	}
+
+	/**
+	 * Metodo che legge un segmento cifrato completo, o quello che resta prima della
+	 * fine dello stream.
+	 *
+	 * @return byte del segmento, vuoto a fine stream
+	 * @throws IOException in caso di errore di lettura
+	 */
+	private byte[] readChunk() throws IOException {
+		byte[] chunk = new byte[chunkSize];
+		int n = 0;
+		while (n < chunkSize) {
+			int r = in.read(chunk, n, chunkSize - n);
+			if (r < 0)
+				break;
+			n += r;
+		}
+		return n == chunkSize ? chunk : Arrays.copyOf(chunk, n);
+	}
+
+	/**
+	 * Metodo che manda al pool di decifratura i segmenti successivi finch&eacute;
+	 * la coda non &egrave; piena. Un segmento &egrave; l'ultimo se dopo di lui lo
+	 * stream finisce.
+	 *
+	 * @throws IOException in caso di errore di lettura o parte troncata
+	 */
+	private void schedule() throws IOException {
+		if (ahead == null && !inputDone)
+			ahead = readChunk();
+		while (!inputDone && pending.size() < MAX_IN_FLIGHT) {
+			final byte[] chunk = ahead;
+			if (chunk.length < EncryptService.getTagDim())
+				throw new EOFException("Encrypted part is truncated");
+			byte[] next = chunk.length < chunkSize ? new byte[0] : readChunk();
+			final boolean last = next.length == 0;
+			final long i = index++;
+			pending.add(EncryptService.getSegmentPool()
+					.submit(() -> EncryptService.openSegment(key, noncePrefix, aad, i, last, chunk, chunk.length)));
+			ahead = next;
+			inputDone = last;
+		}
+	}
+
+	/**
+	 * Metodo che passa al segmento decifrato successivo.
+	 *
+	 * @return false a fine stream
+	 * @throws IOException in caso di errore di lettura o tag non valido
+	 */
+	private boolean nextSegment() throws IOException {
+		do {
+			schedule();
+			if (pending.isEmpty())
+				return false;
+			try {
+				plain = pending.poll().get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Decryption interrupted");
+			} catch (ExecutionException e) {
+				throw new IOException("Segment " + (index - pending.size() - 1) + " authentication failed",
+						e.getCause());
+			}
+			pos = 0;
+		} while (plain.length == 0);
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (pos == plain.length && !nextSegment())
+			return -1;
+		return plain[pos++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (pos == plain.length && !nextSegment())
+			return -1;
+		int n = Math.min(len, plain.length - pos);
+		System.arraycopy(plain, pos, b, off, n);
+		pos += n;
+		return n;
+	}
+
+	@Override
+	public int available() {
+		return plain.length - pos;
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (Future<byte[]> f : pending)
+			f.cancel(false);
+		pending.clear();
+		in.close();
+	}
+}
@@ -0,0 +1,127 @@
+package services;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import javax.crypto.SecretKey;
+
+/**
+ * @author federico
+ * Stream di cifratura a segmenti: i dati vengono divisi in segmenti di dimensione fissa e ogni
+ * segmento viene cifrato con AES/GCM come messaggio indipendente, con un proprio nonce e un
+ * proprio tag. I segmenti vengono cifrati in parallelo dal pool di services>EncryptService e
+ * scritti nell'ordine originale, tenendo in memoria al massimo MAX_IN_FLIGHT segmenti.
+ * L'ultimo segmento (anche vuoto) viene sempre scritto alla chiusura ed &egrave; marcato nel
+ * nonce, cos&igrave; una parte troncata non supera la verifica dei tag.
+ */
+public class SegmentedEncryptOutputStream extends OutputStream {
+	private static final int MAX_IN_FLIGHT = Math.min(2 * Runtime.getRuntime().availableProcessors(), 8);
+
+	private final OutputStream out;
+	private final SecretKey key;
+	private final byte[] noncePrefix;
+	private final byte[] aad;
+	private final int segmentSize;
+	private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+	private byte[] segment;
+	private int segmentLen = 0;
+	private long index = 0;
+	private boolean closed = false;
+
+	/**
+	 * Costruttore della classe SegmentedEncryptOutputStream. L'intestazione dei
+	 * segmenti deve essere gi&agrave; stata scritta da
+	 * EncryptService.getEncryptStream().
+	 *
+	 * @param out         stream su cui scrivere i segmenti cifrati
+	 * @param key         chiave AES
+	 * @param noncePrefix prefisso casuale dei nonce di questa parte
+	 * @param aad         dati autenticati della parte, null per nessuno
+	 * @param segmentSize byte in chiaro di ogni segmento
+	 */
+	SegmentedEncryptOutputStream(OutputStream out, SecretKey key, byte[] noncePrefix, byte[] aad, int segmentSize) {
+		this.out = out;
+		this.key = key;
+		this.noncePrefix = noncePrefix;
+		this.aad = aad;
+		this.segmentSize = segmentSize;
+		this.segment = new byte[segmentSize];
+	}
+
+	/**
+	 * Metodo che manda il segmento corrente al pool di cifratura e scrive i segmenti
+	 * gi&agrave; pronti.
+	 *
+	 * @param last true se &egrave; l'ultimo segmento
+	 * @throws IOException in caso di errore di cifratura o di scrittura
+	 */
+	private void submitSegment(boolean last) throws IOException {
+		final byte[] data = segment;
+		final int len = segmentLen;
+		final long i = index++;
+		pending.add(EncryptService.getSegmentPool()
+				.submit(() -> EncryptService.sealSegment(key, noncePrefix, aad, i, last, data, len)));
+		segment = last ? null : new byte[segmentSize];
+		segmentLen = 0;
+		while (pending.size() > (last ? 0 : MAX_IN_FLIGHT))
+			writeCompleted();
+	}
+
+	/**
+	 * Metodo che aspetta il segmento pi&ugrave; vecchio in coda e lo scrive.
+	 *
+	 * @throws IOException in caso di errore di cifratura o di scrittura
+	 */
+	private void writeCompleted() throws IOException {
+		try {
+			out.write(pending.poll().get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Encryption interrupted");
+		} catch (ExecutionException e) {
+			throw new IOException("Cipher Error", e.getCause());
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (closed)
+			throw new IOException("Stream closed");
+		while (len > 0) {
+			// un segmento pieno viene cifrato solo quando arrivano altri byte, cos&igrave;
+			// l'ultimo segmento non &egrave; mai vuoto se i dati non lo sono
+			if (segmentLen == segmentSize)
+				submitSegment(false);
+			int n = Math.min(len, segmentSize - segmentLen);
+			System.arraycopy(b, off, segment, segmentLen, n);
+			segmentLen += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Metodo che cifra l'ultimo segmento, scrive tutti i segmenti in coda e chiude
+	 * lo stream sottostante.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		try {
+			submitSegment(true);
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -1,13 +1,43 @@
 package splitter;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Checksum;
 
-import gui.MainPanel;
+import core.IJobListener;
 import core.Header;
 import core.ISplitter;
+import core.JobControl;
+import core.Manifest;
+import core.RateLimiter;
+import core.JobStoppedException;
+import services.BufferPoolService;
+import services.ChecksumService;
+import services.CodecService;
+import services.CompressService;
+import services.EncryptService;
+import services.HeaderService;
+import services.ICodec;
+import services.ManifestService;
+import services.MappedIOService;
 
 /**
  * @author federico
@@ -16,12 +46,30 @@ import core.ISplitter;
  */
 public abstract class AbstractSplitter implements ISplitter, Runnable {
 	private String sourceFile, destFolder;
-	private int inc;
+	private int workers = 1;
+	private boolean mappedIO = false;
+	private boolean plainChecksums = false;
+	private boolean compressParts = false;
+	private ICodec codec = CodecService.getDefault();
+	private byte[] cryptSalt;
+	private long setId;
+	// dimensione su disco e dopo la compressione e checksum di ogni parte, per il manifest
+	private long[] storedLen, compressedLen;
+	private int[] checksums;
+	private volatile int fileChecksum = 0;
+	private final LongAdder processed = new LongAdder();
+	private final JobControl control = new JobControl();
+	private final RateLimiter limiter = new RateLimiter();
+	// parti iniziate e finite, mantenute tra una pausa e la ripresa
+	private final BitSet startedParts = new BitSet(), doneParts = new BitSet();
+	private int level = CodecService.DEFAULT_LEVEL;
 	protected String filePath, fileName;
 	protected long fileLen;
 	protected Header h;
 	protected final long MAX_SIZE = 64 * 1024; // 64KB
-	protected MainPanel main;
+	private static final long PROGRESS_STEP = 16 * 1024 * 1024; // 16MB
+	protected IJobListener main;
+	private static final ForkJoinPool transformPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
 
 	/**
 	 * Costruttore della classe AbstractSplitter che inizializza gli attributi e
@@ -29,9 +77,9 @@ public abstract class AbstractSplitter implements ISplitter, Runnable {
 	 * 
 	 * @param sf   path del file sorgente
 	 * @param df   path della cartella di destinazione
-	 * @param main oggetto MainPanel usato per stampare gli errori
+	 * @param main listener che riceve gli errori
 	 */
-	public AbstractSplitter(String sf, String df, MainPanel main) {
+	public AbstractSplitter(String sf, String df, IJobListener main) {
 		this.sourceFile = sf;
 		this.destFolder = df;
 		this.main = main;
@@ -42,25 +90,198 @@ public abstract class AbstractSplitter implements ISplitter, Runnable {
 	}
 
 	/**
-	 * Getter della dimensione da incrementare nella progress bar una volta
-	 * completata l'esecuzione
+	 * Getter del numero totale di byte da leggere dal file sorgente
 	 * 
-	 * @return valore incremento
+	 * @return dimensione file sorgente
 	 */
-	public int getInc() {
-		return inc;
+	public long getTotalBytes() {
+		return fileLen;
 	}
 
 	/**
-	 * Setter della dimensione da incrementare nella progress bar una volta
-	 * completata l'esecuzione
+	 * Getter del numero di byte del file sorgente gi&agrave; scritti nelle parti
 	 * 
-	 * @param inc incremento
+	 * @return byte elaborati
 	 */
-	public void setInc(int inc) {
-		this.inc = inc;
+	public long getProcessedBytes() {
+		return processed.sum();
 	}
 
+	/**
+	 * Getter del controllo per mettere in pausa, riprendere o annullare il job
+	 * 
+	 * @return controllo del job
+	 */
+	public JobControl getControl() {
+		return control;
+	}
+
+	/**
+	 * Getter del limitatore di banda del job, il limite pu&ograve; essere cambiato
+	 * anche mentre il job &egrave; in esecuzione
+	 * 
+	 * @return limitatore del job
+	 */
+	public RateLimiter getRateLimiter() {
+		return limiter;
+	}
+
+	/**
+	 * Metodo chiamato dai cicli di copia dopo ogni blocco: aggiorna
+	 * l'avanzamento ed aspetta se il job o il totale dei job supera il limite di
+	 * banda.
+	 * 
+	 * @param bytes byte copiati
+	 * @throws JobStoppedException se il job viene fermato durante l'attesa
+	 */
+	private void chunkDone(long bytes) throws JobStoppedException {
+		processed.add(bytes);
+		limiter.acquire(bytes, control);
+		RateLimiter.getGlobal().acquire(bytes, control);
+	}
+
+	/**
+	 * Metodo che calcola la dimensione dei blocchi dei cicli di copia in base ai
+	 * limiti di banda attivi.
+	 * 
+	 * @param max dimensione del blocco senza limiti
+	 * @return dimensione del blocco in byte
+	 */
+	private long chunkSize(long max) {
+		return RateLimiter.getGlobal().chunkSize(limiter.chunkSize(max));
+	}
+
+	/**
+	 * Getter del numero di thread che scrivono contemporaneamente le parti
+	 * 
+	 * @return numero di thread
+	 */
+	public int getWorkers() {
+		return workers;
+	}
+
+	/**
+	 * Setter del numero di thread che scrivono contemporaneamente le parti. Con 1
+	 * le parti vengono scritte una dopo l'altra, con un valore maggiore ogni thread
+	 * legge in modo posizionale il proprio intervallo del file sorgente e scrive la
+	 * sua parte in modo indipendente dagli altri (utile su NVMe e RAID). I thread
+	 * in pi&ugrave; vengono concessi solo se i dispositivi del job hanno posti
+	 * liberi nel limite dello scheduler.
+	 * 
+	 * @param workers numero di thread
+	 */
+	public void setWorkers(int workers) {
+		this.workers = Math.max(1, workers);
+	}
+
+	/**
+	 * Getter per sapere se le parti vengono copiate tramite memory mapping
+	 * 
+	 * @return true se viene usato il memory mapping
+	 */
+	public boolean isMappedIO() {
+		return mappedIO;
+	}
+
+	/**
+	 * Setter per copiare le parti mappando il file sorgente e le parti a finestre
+	 * con services>MappedIOService invece di usare FileChannel.transferTo(). La
+	 * dimensione delle finestre si imposta con MappedIOService.setWindowSize().
+	 * 
+	 * @param mappedIO true per usare il memory mapping
+	 */
+	public void setMappedIO(boolean mappedIO) {
+		this.mappedIO = mappedIO;
+	}
+
+	/**
+	 * Getter per sapere se viene calcolato il checksum anche delle parti semplici
+	 * copiate con FileChannel.transferTo()
+	 * 
+	 * @return true se le parti semplici hanno il checksum
+	 */
+	public boolean isPlainChecksums() {
+		return plainChecksums;
+	}
+
+	/**
+	 * Setter per calcolare il checksum anche delle parti semplici (non compresse,
+	 * non cifrate e non mappate). Senza checksum queste parti vengono copiate dal
+	 * kernel con FileChannel.transferTo() (zero-copy) e l'Header ed il manifest
+	 * registrano checksum 0, quindi la ricompattazione e la verifica non possono
+	 * controllarle. Con il checksum ogni blocco passa una volta da un buffer
+	 * diretto: costa una copia in pi&ugrave; ma non rilegge la parte. Le parti
+	 * compresse, cifrate o mappate hanno sempre il checksum perch&eacute; i loro
+	 * byte passano comunque dalla memoria del processo.
+	 * 
+	 * @param plainChecksums true per calcolare il checksum delle parti semplici
+	 */
+	public void setPlainChecksums(boolean plainChecksums) {
+		this.plainChecksums = plainChecksums;
+	}
+
+	/**
+	 * Metodo che dice se le parti del job hanno il checksum
+	 * 
+	 * @return true se ogni parte scritta ha il checksum
+	 */
+	private boolean hasChecksums() {
+		return compressParts || isCrypted() || mappedIO || plainChecksums;
+	}
+
+	/**
+	 * Getter del codec usato per comprimere le parti
+	 * 
+	 * @return codec di compressione
+	 */
+	public ICodec getCodec() {
+		return codec;
+	}
+
+	/**
+	 * Getter del livello di compressione del codec
+	 * 
+	 * @return livello da 1 a 9, -1 per quello di default
+	 */
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * Setter del codec e del livello usati per comprimere le parti. Il codec viene
+	 * salvato nell'Header, cos&igrave; lo stitcher usa il decoder giusto.
+	 * 
+	 * @param codec codec di services>CodecService
+	 * @param level livello da 1 a 9, -1 per quello di default
+	 */
+	public void setCodec(ICodec codec, int level) {
+		this.codec = codec;
+		this.level = level;
+	}
+
+	/**
+	 * Getter del numero totale delle parti che verranno create
+	 * 
+	 * @return numero totale parti
+	 */
+	public abstract int getTotParts();
+
+	/**
+	 * Getter della posizione nel file sorgente da cui inizia una parte
+	 * 
+	 * @param part numero della parte (da 1 a {@link #getTotParts()})
+	 * @return offset in byte nel file sorgente
+	 */
+	public abstract long getPartOffset(int part);
+
+	/**
+	 * Getter del numero di byte del file sorgente contenuti in una parte
+	 * 
+	 * @param part numero della parte (da 1 a {@link #getTotParts()})
+	 * @return lunghezza in byte della parte
+	 */
+	public abstract long getPartLength(int part);
+
 	/**
 	 * Getter del path del file da dividere
 	 * 
@@ -80,44 +301,357 @@ public abstract class AbstractSplitter implements ISplitter, Runnable {
 	}
 
 	/**
-	 * Metodo che si occupa di bufferizzare con un buffer di lunghezza MAX_SIZE le
-	 * scritture su file.
+	 * Metodo che trasferisce un intervallo di byte del file sorgente direttamente
+	 * sul canale di destinazione con FileChannel.transferTo(), in questo modo la
+	 * copia viene fatta dal kernel (zero-copy) senza passare da un buffer nello
+	 * heap. Il trasferimento viene ripetuto finch&eacute; non sono stati copiati
+	 * tutti i byte richiesti perch&eacute; transferTo() pu&ograve; trasferirne
+	 * meno di quelli chiesti. Se serve il checksum la copia viene fatta invece da
+	 * services>ChecksumService.copy(), che legge ogni blocco una sola volta in un
+	 * buffer diretto. Se {@link #isMappedIO()} la copia viene fatta a finestre
+	 * mappate da services>MappedIOService ed il checksum viene calcolato sulla
+	 * finestra mappata.
+	 * 
+	 * @param src      canale del file sorgente
+	 * @param position posizione nel file sorgente da cui iniziare a copiare
+	 * @param count    numero di byte da copiare
+	 * @param dest     canale su cui scrivere i byte (lettura e scrittura se
+	 *                 mappato)
+	 * @param crc      checksum dei byte copiati, null per nessun checksum
+	 * @throws IOException in caso di errore di lettura/scrittura o se il job viene
+	 *                     fermato
+	 */
+	void transferReadWrite(FileChannel src, long position, long count, FileChannel dest, Checksum crc)
+			throws IOException {
+		long done = 0;
+		while (done < count) {
+			control.checkpoint();
+			// copio a passi di PROGRESS_STEP (pi&ugrave; piccoli se limitato) per
+			// aggiornare l'avanzamento
+			long step = Math.min(count - done, chunkSize(PROGRESS_STEP));
+			long nTransferred;
+			if (mappedIO) {
+				MappedIOService.copy(src, position + done, step, dest, dest.position(), crc);
+				nTransferred = Math.min(step, Math.max(0, src.size() - position - done));
+			} else if (crc != null)
+				nTransferred = ChecksumService.copy(crc, src, position + done, step, dest);
+			else
+				nTransferred = src.transferTo(position + done, step, dest);
+			if (nTransferred <= 0)
+				throw new IOException("Unexpected end of file"); // file sorgente pi&ugrave; corto
+			done += nTransferred;
+			chunkDone(nTransferred);
+		}
+	}
+
+	/**
+	 * Metodo che legge in modo posizionale un intervallo del file sorgente e lo
+	 * scrive sullo stream di output. Il buffer viene preso in prestito da
+	 * services>BufferPoolService e la posizione del canale non viene modificata,
+	 * quindi pu&ograve; essere chiamato contemporaneamente da pi&ugrave; thread
+	 * sullo stesso canale.
+	 * 
+	 * @param src      canale del file sorgente
+	 * @param position posizione nel file sorgente da cui iniziare a leggere
+	 * @param count    numero di byte da copiare
+	 * @param os       stream su cui scrivere i byte
+	 * @param crc      checksum dei byte letti
+	 * @throws IOException in caso di errore di lettura/scrittura o se il job viene
+	 *                     fermato
+	 */
+	void positionalReadWrite(FileChannel src, long position, long count, OutputStream os, Checksum crc)
+			throws IOException {
+		ByteBuffer buffer = BufferPoolService.lease(false);
+		try {
+			long done = 0;
+			while (done < count) {
+				control.checkpoint();
+				buffer.clear();
+				buffer.limit((int) Math.min(buffer.capacity(), count - done));
+				int nRead = src.read(buffer, position + done);
+				if (nRead <= 0)
+					throw new IOException("Unexpected end of file"); // file sorgente pi&ugrave; corto
+				crc.update(buffer.array(), 0, nRead);
+				os.write(buffer.array(), 0, nRead);
+				done += nRead;
+				chunkDone(nRead);
+			}
+		} finally {
+			BufferPoolService.release(buffer);
+		}
+	}
+
+	/**
+	 * Metodo che scrive una singola parte leggendo in modo posizionale il suo
+	 * intervallo dal canale del file sorgente. Non modificando la posizione del
+	 * canale pu&ograve; essere chiamato contemporaneamente da pi&ugrave; thread
+	 * sullo stesso canale. Se la parte va compressa e/o cifrata i byte passano in
+	 * un'unica passata dal compressore del codec e dalla cifratura a segmenti
+	 * direttamente nel file della parte: prima l'Header, poi l'intestazione dei
+	 * segmenti ed infine i segmenti cifrati, nello stesso formato letto dagli
+	 * stitcher. Ogni parte ha il suo Header con l'identificativo della divisione
+	 * e l'intervallo del file originale che contiene, cos&igrave; le parti possono
+	 * essere ricompattate partendo da una qualsiasi e in qualsiasi ordine. Il
+	 * CRC32C dei byte originali viene calcolato durante la copia e scritto
+	 * nell'Header a parte finita.
 	 * 
-	 * @param bytesPerSplit dimensione dei byte da bufferizzare
-	 * @param is            stream da cui leggere i byte
-	 * @param os            stream su cui scrivere i byte
+	 * @param src  canale del file sorgente
+	 * @param path path delle parti senza il numero finale
+	 * @param part numero della parte da scrivere
 	 */
-	void bufferedReadWrite(long bytesPerSplit, InputStream is, OutputStream os) {
-		if (bytesPerSplit > MAX_SIZE) {
-			long numReads = bytesPerSplit / MAX_SIZE;
-			long numRemainingRead = bytesPerSplit % MAX_SIZE;
-			for (int y = 0; y < numReads; y++) {
-				readWrite(is, os, MAX_SIZE);
+	void writePart(FileChannel src, String path, int part) {
+		Header partHeader = new Header(getTotParts(), part, compressParts, isCrypted(), this.fileName,
+				codec.getId(), setId, getPartOffset(part), getPartLength(part));
+		try {
+			control.checkpoint();
+		} catch (JobStoppedException e) {
+			return; // job fermato prima di iniziare la parte
+		}
+		synchronized (startedParts) {
+			startedParts.set(part);
+		}
+		compressedLen[part] = 0; // la parte viene riscritta da capo, anche alla ripresa dopo una pausa
+		Checksum crc = ChecksumService.newChecksum();
+		try {
+			if (compressParts || isCrypted()) {
+				try (FileOutputStream fos = new FileOutputStream(path + "." + part)) {
+					HeaderService.setHeader(partHeader, fos, main);
+					OutputStream os = fos;
+					if (isCrypted())
+						os = EncryptService.getEncryptStream(getPassword(), cryptSalt,
+								EncryptService.partAad(setId, part, getPartOffset(part)), fos);
+					if (compressParts)
+						os = codec.compress(countWritten(os, part), level);
+					positionalReadWrite(src, getPartOffset(part), getPartLength(part), os, crc);
+					os.close();
+				}
+				try (FileChannel dest = FileChannel.open(Paths.get(path + "." + part), StandardOpenOption.WRITE)) {
+					HeaderService.setChecksum(dest, (int) crc.getValue());
+				}
+				if (!compressParts)
+					compressedLen[part] = getPartLength(part);
+			} else {
+				try (FileChannel dest = FileChannel.open(Paths.get(path + "." + part), StandardOpenOption.CREATE,
+						StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+					HeaderService.setHeader(partHeader, Channels.newOutputStream(dest), main);
+					transferReadWrite(src, getPartOffset(part), getPartLength(part), dest,
+							hasChecksums() ? crc : null);
+					if (hasChecksums())
+						HeaderService.setChecksum(dest, (int) crc.getValue());
+				}
+				compressedLen[part] = getPartLength(part);
 			}
-			if (numRemainingRead > 0) {
-				readWrite(is, os, numRemainingRead);
+			storedLen[part] = new File(path + "." + part).length();
+			checksums[part] = hasChecksums() ? (int) crc.getValue() : 0;
+			synchronized (startedParts) {
+				doneParts.set(part);
 			}
-		} else {
-			readWrite(is, os, bytesPerSplit);
+		} catch (JobStoppedException e) {
+			new File(path + "." + part).delete(); // parte incompleta, verr&agrave; riscritta alla ripresa
+		} catch (IOException e) {
+			main.printError("I/O Error");
 		}
 	}
 
 	/**
-	 * Metodo che legge/scrive una dimensione prefissata di byte su un buffer.
+	 * Metodo che avvolge lo stream su cui scrive il compressore contando i byte
+	 * compressi della parte.
 	 * 
-	 * @param buffSize dimensione del buffer
-	 * @param is       stream da cui leggere i byte
-	 * @param os       stream su cui scrivere i byte
+	 * @param os   stream su cui scrivere i byte compressi
+	 * @param part numero della parte
+	 * @return stream che conta i byte scritti
 	 */
-	void readWrite(InputStream is, OutputStream os, long buffSize) {
-		byte[] buff = new byte[(int) buffSize];
+	private OutputStream countWritten(OutputStream os, int part) {
+		return new FilterOutputStream(os) {
+			@Override
+			public void write(int b) throws IOException {
+				out.write(b);
+				compressedLen[part]++;
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+				compressedLen[part] += len;
+			}
+		};
+	}
+
+	/**
+	 * Getter del CRC32C del file sorgente, ottenuto combinando i checksum delle
+	 * parti scritte
+	 * 
+	 * @return checksum, 0 se il job non &egrave; finito
+	 */
+	public int getFileChecksum() {
+		return fileChecksum;
+	}
+
+	/**
+	 * Metodo che scrive il manifest della divisione con services>ManifestService
+	 * quando tutte le parti sono state scritte. Il CRC32C dell'intero file viene
+	 * ottenuto combinando quelli delle parti, senza rileggere il file, ed
+	 * &egrave; 0 se le parti non hanno il checksum.
+	 */
+	private void writeManifest() {
+		int totParts = getTotParts();
+		Manifest m = new Manifest(setId, fileName, totParts, compressParts, isCrypted(), codec.getId());
+		int fileChecksum = 0;
+		for (int i = 1; i <= totParts; i++) {
+			m.setPart(i, fileName + "." + i, getPartOffset(i), getPartLength(i), storedLen[i], compressedLen[i],
+					checksums[i]);
+			fileChecksum = ChecksumService.combine(fileChecksum, checksums[i], getPartLength(i));
+		}
+		if (!hasChecksums())
+			fileChecksum = 0;
+		m.setFileChecksum(fileChecksum);
+		this.fileChecksum = fileChecksum;
+		ManifestService.writeManifest(m, getDestFolderPath(), main);
+	}
+
+	/**
+	 * Metodo che cancella tutte le parti scritte dal job quando viene annullato.
+	 * 
+	 * @param path path delle parti senza il numero finale
+	 */
+	private void deleteParts(String path) {
+		synchronized (startedParts) {
+			for (int i = startedParts.nextSetBit(0); i >= 0; i = startedParts.nextSetBit(i + 1))
+				new File(path + "." + i).delete();
+			startedParts.clear();
+			doneParts.clear();
+		}
+	}
+
+	/**
+	 * Metodo che divide il file sorgente in {@link #getTotParts()} parti. Se le
+	 * parti vanno compresse e/o cifrate ogni parte &egrave; uno stream compresso e
+	 * uno stream cifrato indipendente, quindi le parti vengono trasformate come
+	 * task del pool work-stealing condiviso grande quanto i core. Altrimenti se
+	 * {@link #getWorkers()} &egrave; maggiore di 1 le parti vengono scritte in
+	 * parallelo da un pool di thread, contati nel limite dei dispositivi dello
+	 * scheduler, che condividono lo stesso canale sorgente, oppure una dopo
+	 * l'altra. Il completamento dei task viene atteso nell'ordine delle parti e
+	 * quando tutte le parti sono scritte viene scritto il manifest della
+	 * divisione. Se il job viene messo in pausa le parti finite
+	 * restano su disco e alla ripresa vengono scritte solo le altre; se viene
+	 * annullato tutte le parti scritte vengono cancellate.
+	 */
+	void splitParts() {
+		String path = getDestFolderPath() + File.separator + fileName;
+		boolean resuming;
+		processed.reset();
+		fileChecksum = 0;
+		synchronized (startedParts) {
+			resuming = !doneParts.isEmpty();
+			for (int i = doneParts.nextSetBit(0); i >= 0; i = doneParts.nextSetBit(i + 1))
+				processed.add(getPartLength(i));
+		}
+		if (!resuming || setId == 0) {
+			setId = newSetId(); // le parti di una divisione precedente vengono riconosciute
+			storedLen = new long[getTotParts() + 1];
+			compressedLen = new long[getTotParts() + 1];
+			checksums = new int[getTotParts() + 1];
+			ManifestService.getManifestPath(getDestFolderPath(), fileName).toFile().delete();
+		}
+		if (isCrypted()) {
+			EncryptService.retain(getPassword()); // la chiave viene derivata una volta per job
+			if (!resuming || cryptSalt == null)
+				cryptSalt = EncryptService.newSalt();
+		}
+		int granted = 1;
 		try {
-			int nRead = is.read(buff);
-			if (nRead > 0) {
-				os.write(buff, 0, nRead);
+			int totParts = getTotParts();
+			try (FileChannel src = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+				// i file gi&agrave; compressi (video, immagini, archivi) vengono divisi senza
+				// comprimerli, l'Header delle parti lo registra per gli stitcher
+				compressParts = isCompress() && CompressService.isWorthCompressing(src, fileLen);
+				ExecutorService pool = null;
+				if (compressParts || isCrypted())
+					pool = transformPool;
+				else {
+					// i thread in pi&ugrave; occupano posti sui dispositivi del job nello scheduler
+					granted = control.acquireWorkers(Math.min(workers, totParts));
+					if (granted > 1)
+						pool = Executors.newFixedThreadPool(granted);
+				}
+
+				if (pool == null) {
+					for (int i = 1; i <= totParts; i++)
+						if (!isPartDone(i))
+							writePart(src, path, i);
+				} else {
+					List<Future<?>> written = new ArrayList<Future<?>>();
+					List<Integer> parts = new ArrayList<Integer>();
+					try {
+						for (int i = 1; i <= totParts; i++) {
+							if (isPartDone(i))
+								continue;
+							final int part = i;
+							written.add(pool.submit(() -> writePart(src, path, part)));
+							parts.add(part);
+						}
+						for (int i = 0; i < written.size(); i++) {
+							try {
+								written.get(i).get();
+							} catch (ExecutionException e) {
+								main.printError("I/O Error on part " + parts.get(i));
+							}
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						if (pool != transformPool)
+							pool.shutdown();
+					}
+				}
 			}
+			boolean complete;
+			synchronized (startedParts) {
+				complete = doneParts.cardinality() == totParts;
+			}
+			if (complete)
+				writeManifest();
 		} catch (IOException e) {
 			main.printError("I/O Error");
+		} finally {
+			control.releaseWorkers(granted);
+			if (isCrypted())
+				EncryptService.release(getPassword());
+			if (control.isStopped() && control.isCancelled())
+				deleteParts(path);
+			else if (!control.isStopped())
+				synchronized (startedParts) { // job finito, la prossima esecuzione riparte da capo
+					startedParts.clear();
+					doneParts.clear();
+				}
+		}
+	}
+
+	/**
+	 * Metodo che genera un nuovo identificativo casuale diverso da 0, che negli
+	 * Header indica le divisioni con l'Header solo nella prima parte.
+	 * 
+	 * @return identificativo della divisione
+	 */
+	private static long newSetId() {
+		long id;
+		do
+			id = ThreadLocalRandom.current().nextLong();
+		while (id == 0);
+		return id;
+	}
+
+	/**
+	 * Metodo che controlla se una parte &egrave; gi&agrave; stata scritta prima
+	 * di una pausa.
+	 * 
+	 * @param part numero della parte
+	 * @return true se la parte &egrave; gi&agrave; completa
+	 */
+	private boolean isPartDone(int part) {
+		synchronized (startedParts) {
+			return doneParts.get(part);
 		}
 	}
 
@@ -1,13 +1,6 @@
 package splitter;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-
-import core.Header;
-import gui.MainPanel;
-import services.HeaderService;
+import core.IJobListener;
 
 /**
  * @author federico
@@ -30,9 +23,9 @@ public class ChunkSizeSplitter extends AbstractSplitter {
 	 * @param df    path della cartella di destinazione
 	 * @param parts parte intera in cui splittare il file
 	 * @param bytes unit&agrave; di grandezza in cui splittare il file
-	 * @param main  oggetto MainPanel usato per stampare gli errori
+	 * @param main  listener che riceve gli errori
 	 */
-	public ChunkSizeSplitter(String sf, String df, int parts, long bytes, MainPanel main) {
+	public ChunkSizeSplitter(String sf, String df, int parts, long bytes, IJobListener main) {
 		super(sf, df, main);
 		this.parts = parts;
 		this.bytes = bytes;
@@ -59,6 +52,41 @@ public class ChunkSizeSplitter extends AbstractSplitter {
 		return bytes;
 	}
 
+	/**
+	 * Getter del numero totale delle parti che verranno create
+	 * 
+	 * @return numero totale parti
+	 */
+	@Override
+	public int getTotParts() {
+		return (int) (this.sourceSize / this.bytesPerSplit);
+	}
+
+	/**
+	 * Getter della posizione nel file sorgente da cui inizia una parte
+	 * 
+	 * @param part numero della parte
+	 * @return offset in byte nel file sorgente
+	 */
+	@Override
+	public long getPartOffset(int part) {
+		return (part - 1) * bytesPerSplit;
+	}
+
+	/**
+	 * Getter del numero di byte del file sorgente contenuti in una parte, l'ultima
+	 * parte contiene anche i byte rimanenti della divisione
+	 * 
+	 * @param part numero della parte
+	 * @return lunghezza in byte della parte
+	 */
+	@Override
+	public long getPartLength(int part) {
+		if (part == getTotParts())
+			return bytesPerSplit + remainingBytes;
+		return bytesPerSplit;
+	}
+
 	/**
 	 * Getter della password con cui il file verr&agrave; cifrato
 	 * 
@@ -103,28 +131,11 @@ public class ChunkSizeSplitter extends AbstractSplitter {
 
 	/**
 	 * Metodo esecutivo per la tipologia di divisione per una data dimensione in
-	 * byte.
+	 * byte. Se la sottoclasse lo richiede le parti vengono
+	 * compresse e/o cifrate nella stessa passata.
 	 */
 	@Override
 	public void run() {
-		try {
-			String path = super.getDestFolderPath() + File.separator + super.fileName;
-			FileInputStream fis = new FileInputStream(super.filePath);
-			int totParts = (int) (this.sourceSize / this.bytesPerSplit);
-			for (int i = 1; i <= totParts; i++) {
-				FileOutputStream fos = new FileOutputStream(path + "." + i);
-				if (i == 1)
-					HeaderService.setHeader(new Header(totParts, i, false, false, this.fileName), fos, super.main);
-				super.bufferedReadWrite(bytesPerSplit, fis, fos);
-				if (remainingBytes > 0 && i == totParts)
-					readWrite(fis, fos, remainingBytes);
-				fos.close();
-			}
-			fis.close();
-		} catch (IOException e) {
-			main.printError("I/O Error");
-		}
-
-		main.getJobState().setValue(main.getJobState().getValue() + this.getInc());
+		super.splitParts();
 	}
 }
@@ -1,17 +1,6 @@
 package splitter;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-
-import javax.crypto.Cipher;
-import javax.crypto.CipherOutputStream;
-
-import core.Header;
-import gui.MainPanel;
-import services.EncryptService;
-import services.HeaderService;
+import core.IJobListener;
 
 /**
  * @author federico 
@@ -30,9 +19,9 @@ public class ChunkSizeSplitterCrypt extends ChunkSizeSplitter {
 	 * @param parts    parte intera in cui splittare il file
 	 * @param bytes    unit&agrave; di grandezza in cui splittare il file
 	 * @param password password di cifratura
-	 * @param main     oggetto MainPanel usato per stampare gli errori
+	 * @param main     listener che riceve gli errori
 	 */
-	public ChunkSizeSplitterCrypt(String sf, String df, int parts, long bytes, String password, MainPanel main) {
+	public ChunkSizeSplitterCrypt(String sf, String df, int parts, long bytes, String password, IJobListener main) {
 		super(sf, df, parts, bytes, main);
 		this.password = password;
 	}
@@ -68,47 +57,4 @@ public class ChunkSizeSplitterCrypt extends ChunkSizeSplitter {
 	public int getExtraOperations() {
 		return 1;
 	}
-
-	/**
-	 * Metodo esecutivo per cifrare le parti divise per una data dimensione di
-	 * bytes.
-	 */
-	@Override
-	public void run() {
-		super.run();
-		String path = super.getDestFolderPath() + File.separator + super.fileName;
-		int totParts = (int) (super.sourceSize / super.bytesPerSplit);
-		for (int i = 1; i <= totParts; i++) {
-			try {
-				File input = new File(path + "." + i);
-				FileInputStream fis_Source = new FileInputStream(input);
-				FileOutputStream fos_Dest = new FileOutputStream(path + "." + i + ".crypt");
-
-				long skip = 0;
-				if (i == 1) {
-					fis_Source.skip(skip = ((long) HeaderService.getHeaderDim(fis_Source, main))); // skippo l'header, i
-																									// 4 byte
-																									// dell'intero sono
-																									// gi&agrave; stati letti
-																									// da getHeaderDim()
-					HeaderService.setHeader(new Header(totParts, i, false, true, this.fileName), fos_Dest, main);
-					skip += HeaderService.getIntDim();
-				}
-				Cipher cipher = EncryptService.getCipherCrypt(password, fos_Dest, main); // ricreato causa CBC con IV
-																							// sempre diverso
-				CipherOutputStream cos = new CipherOutputStream(fos_Dest, cipher);
-				super.bufferedReadWrite(input.length() - skip, fis_Source, cos);
-				fis_Source.close();
-				cos.flush();
-				cos.close();
-				fos_Dest.close();
-			} catch (IOException e) {
-				main.printError("I/O Error");
-			}
-			new File(path + "." + i).delete();
-			new File(path + "." + i + ".crypt").renameTo(new File(path + "." + i));
-		}
-		main.getJobState().setValue(main.getJobState().getValue() + this.getInc());
-	}
-
 }
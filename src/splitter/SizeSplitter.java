@@ -1,13 +1,6 @@
 package splitter;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-
-import core.Header;
-import gui.MainPanel;
-import services.HeaderService;
+import core.IJobListener;
 
 /**
  * @author federico
@@ -27,9 +20,9 @@ public class SizeSplitter extends AbstractSplitter {
 	 * @param sf    path del file sorgente
 	 * @param df    path della cartella di destinazione
 	 * @param parts parti in cui splittare il file
-	 * @param main  oggetto MainPanel usato per stampare gli errori
+	 * @param main  listener che riceve gli errori
 	 */
-	public SizeSplitter(String sf, String df, int parts, MainPanel main) {
+	public SizeSplitter(String sf, String df, int parts, IJobListener main) {
 		super(sf, df, main);
 		this.parts = parts;
 		this.sourceSize = super.fileLen;
@@ -46,6 +39,41 @@ public class SizeSplitter extends AbstractSplitter {
 		return parts;
 	}
 
+	/**
+	 * Getter del numero totale delle parti che verranno create
+	 * 
+	 * @return numero totale parti
+	 */
+	@Override
+	public int getTotParts() {
+		return getParts();
+	}
+
+	/**
+	 * Getter della posizione nel file sorgente da cui inizia una parte
+	 * 
+	 * @param part numero della parte
+	 * @return offset in byte nel file sorgente
+	 */
+	@Override
+	public long getPartOffset(int part) {
+		return (part - 1) * bytesPerSplit;
+	}
+
+	/**
+	 * Getter del numero di byte del file sorgente contenuti in una parte, l'ultima
+	 * parte contiene anche i byte rimanenti della divisione
+	 * 
+	 * @param part numero della parte
+	 * @return lunghezza in byte della parte
+	 */
+	@Override
+	public long getPartLength(int part) {
+		if (part == getTotParts())
+			return bytesPerSplit + remainingBytes;
+		return bytesPerSplit;
+	}
+
 	/**
 	 * Getter della password con cui il file verr&agrave; cifrato
 	 * 
@@ -99,27 +127,12 @@ public class SizeSplitter extends AbstractSplitter {
 	}
 
 	/**
-	 * Metodo esecutivo per la tipologia di divisione in parti.
+	 * Metodo esecutivo per la tipologia di divisione in parti. Se la sottoclasse lo richiede le parti vengono
+	 * compresse e/o cifrate nella stessa passata.
 	 */
 	@Override
 	public void run() {
-		try {
-			String path = super.getDestFolderPath() + File.separator + super.fileName;
-			FileInputStream fis = new FileInputStream(super.filePath);
-			for (int i = 1; i <= getParts(); i++) {
-				FileOutputStream fos = new FileOutputStream(path + "." + i);
-				if (i == 1)
-					HeaderService.setHeader(new Header(getParts(), i, false, false, this.fileName), fos, main);
-				super.bufferedReadWrite(bytesPerSplit, fis, fos);
-				if (remainingBytes > 0 && i == getParts())
-					readWrite(fis, fos, remainingBytes);
-				fos.close();
-			}
-			fis.close();
-		} catch (IOException e) {
-			main.printError("I/O Error");
-		}
-		main.getJobState().setValue(main.getJobState().getValue() + this.getInc());
+		super.splitParts();
 	}
 
 }
@@ -1,14 +1,6 @@
 package splitter;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.util.zip.GZIPOutputStream;
-
-import core.Header;
-import gui.MainPanel;
-import services.HeaderService;
+import core.IJobListener;
 
 /**
  * @author federico
@@ -22,9 +14,9 @@ public class SizeSplitterCompress extends SizeSplitter {
 	 * @param sf    path del file sorgente
 	 * @param df    path della cartella di destinazione
 	 * @param parts parte intera in cui splittare il file
-	 * @param main  oggetto MainPanel usato per stampare gli errori
+	 * @param main  listener che riceve gli errori
 	 */
-	public SizeSplitterCompress(String sf, String df, int parts, MainPanel main) {
+	public SizeSplitterCompress(String sf, String df, int parts, IJobListener main) {
 		super(sf, df, parts, main);
 	}
 
@@ -49,48 +41,4 @@ public class SizeSplitterCompress extends SizeSplitter {
 	public int getExtraOperations() {
 		return 1;
 	}
-
-	/**
-	 * Metodo esecutivo per comprimere le parti divise.
-	 */
-	@Override
-	public void run() {
-		super.run();
-		String path = super.getDestFolderPath() + File.separator + super.fileName;
-		for (int i = 1; i <= super.getParts(); i++) {
-			try {
-				File input = new File(path + "." + i);
-				FileInputStream fis_Source = new FileInputStream(input);
-				FileOutputStream fos_Dest = new FileOutputStream(path + "." + i + ".gzip");
-
-				long skip = 0;
-				if (i == 1) {
-					fis_Source.skip(skip = ((long) HeaderService.getHeaderDim(fis_Source, main))); // skippo l'header, i
-																									// 4
-																									// byte dell'intero
-																									// sono
-																									// gi&agrave; stati letti
-																									// da
-																									// getHeaderDim()
-					HeaderService.setHeader(new Header(super.getParts(), i, true, false, this.fileName), fos_Dest,
-							main);
-					skip += HeaderService.getIntDim();
-				}
-
-				GZIPOutputStream gos = new GZIPOutputStream(fos_Dest);
-				super.bufferedReadWrite(input.length() - skip, fis_Source, gos);
-
-				fis_Source.close();
-				gos.close();
-				fos_Dest.close();
-			} catch (IOException e) {
-				main.printError("I/O Error");
-			}
-
-			new File(path + "." + i).delete();
-			new File(path + "." + i + ".gzip").renameTo(new File(path + "." + i));
-		}
-		main.getJobState().setValue(main.getJobState().getValue() + this.getInc());
-	}
-
 }
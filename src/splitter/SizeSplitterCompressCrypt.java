@@ -1,17 +1,6 @@
 package splitter;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-
-import javax.crypto.Cipher;
-import javax.crypto.CipherOutputStream;
-
-import core.Header;
-import gui.MainPanel;
-import services.EncryptService;
-import services.HeaderService;
+import core.IJobListener;
 
 /**
  * @author federico
@@ -28,9 +17,9 @@ public class SizeSplitterCompressCrypt extends SizeSplitterCompress {
 	 * @param df       path della cartella di destinazione
 	 * @param parts    parte intera in cui splittare il file
 	 * @param password password di cifratura
-	 * @param main     oggetto MainPanel usato per stampare gli errori
+	 * @param main     listener che riceve gli errori
 	 */
-	public SizeSplitterCompressCrypt(String sf, String df, int parts, String password, MainPanel main) {
+	public SizeSplitterCompressCrypt(String sf, String df, int parts, String password, IJobListener main) {
 		super(sf, df, parts, main);
 		this.password = password;
 	}
@@ -76,46 +65,4 @@ public class SizeSplitterCompressCrypt extends SizeSplitterCompress {
 	public int getExtraOperations() {
 		return 2;
 	}
-
-	/**
-	 * Metodo esecutivo per comprimere e cifrare le parti divise.
-	 */
-	@Override
-	public void run() {
-		super.run();
-		String path = super.getDestFolderPath() + File.separator + super.fileName;
-		for (int i = 1; i <= super.getParts(); i++) {
-			try {
-				File input = new File(path + "." + i);
-				FileInputStream fis_Source = new FileInputStream(input);
-				FileOutputStream fos_Dest = new FileOutputStream(path + "." + i + ".crypt");
-
-				long skip = 0;
-				if (i == 1) {
-					fis_Source.skip(skip = ((long) HeaderService.getHeaderDim(fis_Source, main))); // skippo l'header, i
-																									// 4
-																									// byte dell'intero
-																									// sono
-																									// gi&agrave; stati letti
-																									// da
-																									// getHeaderDim()
-					HeaderService.setHeader(new Header(super.getParts(), i, true, true, this.fileName), fos_Dest, main);
-					skip += HeaderService.getIntDim();
-				}
-				Cipher cipher = EncryptService.getCipherCrypt(password, fos_Dest, main); // ricreato causa CBC con IV
-																							// sempre diverso
-				CipherOutputStream cos = new CipherOutputStream(fos_Dest, cipher);
-				super.bufferedReadWrite(input.length() - skip, fis_Source, cos);
-				fis_Source.close();
-				cos.flush();
-				cos.close();
-				fos_Dest.close();
-			} catch (IOException e) {
-				main.printError("I/O Error");
-			}
-			new File(path + "." + i).delete();
-			new File(path + "." + i + ".crypt").renameTo(new File(path + "." + i));
-		}
-		main.getJobState().setValue(main.getJobState().getValue() + this.getInc());
-	}
 }
@@ -1,11 +1,25 @@
 package stitcher;
 
+import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Checksum;
 
 import core.ISplitter;
-import gui.MainPanel;
+import core.JobControl;
+import core.JobStoppedException;
+import core.RateLimiter;
+import core.IJobListener;
+import services.BufferPoolService;
+import services.ChecksumService;
+import services.CodecService;
+import services.ICodec;
+import services.MappedIOService;
 
 /**
  * @author federico
@@ -15,9 +29,16 @@ import gui.MainPanel;
 public abstract class AbstractStitcher implements ISplitter, Runnable {
 	private String sourceFilePath, destFolder, name;
 	private int part, totParts;
-	private int inc;
+	private int workers = 1;
+	private boolean mappedIO = false;
+	private ICodec codec = CodecService.getDefault();
+	private final LongAdder processed = new LongAdder();
+	private final JobControl control = new JobControl();
+	private final RateLimiter limiter = new RateLimiter();
+	private volatile long totalBytes = -1;
 	protected final long MAX_SIZE = 64 * 1024; // 64KB
-	protected MainPanel main;
+	private static final long PROGRESS_STEP = 16 * 1024 * 1024; // 16MB
+	protected IJobListener main;
 
 	/**
 	 * Costruttore della classe AbstractStitcher che inizializza gli attributi e
@@ -28,9 +49,9 @@ public abstract class AbstractStitcher implements ISplitter, Runnable {
 	 * @param df       path della cartella di destinazione
 	 * @param part     numero della parte corrente
 	 * @param totParts numero delle parti totali della divisione
-	 * @param main     oggetto MainPanel usato per stampare gli errori
+	 * @param main     listener che riceve gli errori
 	 */
-	public AbstractStitcher(String name, String sf, String df, int part, int totParts, MainPanel main) {
+	public AbstractStitcher(String name, String sf, String df, int part, int totParts, IJobListener main) {
 		this.name = name;
 		this.sourceFilePath = sf;
 		this.destFolder = df;
@@ -40,23 +61,197 @@ public abstract class AbstractStitcher implements ISplitter, Runnable {
 	}
 
 	/**
-	 * Getter della dimensione da incrementare nella progress bar una volta
-	 * completata l'esecuzione
+	 * Getter del numero totale di byte da leggere, cio&egrave; la somma delle
+	 * dimensioni delle parti. Il valore viene calcolato dal thread del job
+	 * all'inizio dell'esecuzione, quindi leggerlo (ad esempio dal timer della gui)
+	 * non tocca mai il disco.
 	 * 
-	 * @return valore incremento
+	 * @return byte totali delle parti, -1 se il job non &egrave; ancora partito
 	 */
-	public int getInc() {
-		return inc;
+	public long getTotalBytes() {
+		return totalBytes;
 	}
 
 	/**
-	 * Setter della dimensione da incrementare nella progress bar una volta
-	 * completata l'esecuzione
+	 * Metodo che calcola il numero totale di byte da leggere sommando le
+	 * dimensioni delle parti lette dal disco. Va chiamato dal thread del job
+	 * quando il manifest non &egrave; disponibile.
+	 */
+	protected void countTotalBytes() {
+		String dir = new File(sourceFilePath).getParent();
+		long total = 0;
+		for (int i = 1; i <= totParts; i++)
+			total += new File(dir, name + "." + i).length();
+		totalBytes = total;
+	}
+
+	/**
+	 * Getter del numero di byte delle parti gi&agrave; letti
+	 * 
+	 * @return byte elaborati
+	 */
+	public long getProcessedBytes() {
+		return processed.sum();
+	}
+
+	/**
+	 * Getter del controllo per mettere in pausa, riprendere o annullare il job
+	 * 
+	 * @return controllo del job
+	 */
+	public JobControl getControl() {
+		return control;
+	}
+
+	/**
+	 * Getter del limitatore di banda del job, il limite pu&ograve; essere cambiato
+	 * anche mentre il job &egrave; in esecuzione
+	 * 
+	 * @return limitatore del job
+	 */
+	public RateLimiter getRateLimiter() {
+		return limiter;
+	}
+
+	/**
+	 * Metodo chiamato dai cicli di copia dopo ogni blocco scritto nel file
+	 * ricomposto: aspetta se il job o il totale dei job supera il limite di banda.
+	 * 
+	 * @param bytes byte scritti
+	 * @throws JobStoppedException se il job viene fermato durante l'attesa
+	 */
+	private void throttle(long bytes) throws JobStoppedException {
+		limiter.acquire(bytes, control);
+		RateLimiter.getGlobal().acquire(bytes, control);
+	}
+
+	/**
+	 * Metodo che calcola la dimensione dei blocchi dei cicli di copia in base ai
+	 * limiti di banda attivi.
+	 * 
+	 * @param max dimensione del blocco senza limiti
+	 * @return dimensione del blocco in byte
+	 */
+	private long chunkSize(long max) {
+		return RateLimiter.getGlobal().chunkSize(limiter.chunkSize(max));
+	}
+
+	/**
+	 * Metodo che aggiunge byte letti dalle parti all'avanzamento del job.
+	 * 
+	 * @param bytes byte letti
+	 */
+	protected void addProcessed(long bytes) {
+		processed.add(bytes);
+	}
+
+	/**
+	 * Metodo che avvolge lo stream di una parte contando i byte letti
+	 * nell'avanzamento del job, cos&igrave; anche le parti compresse e/o cifrate
+	 * aggiornano l'avanzamento mentre vengono lette.
+	 * 
+	 * @param is stream della parte
+	 * @return stream che conta i byte letti
+	 */
+	protected InputStream countProcessed(InputStream is) {
+		return new FilterInputStream(is) {
+			@Override
+			public int read() throws IOException {
+				int b = super.read();
+				if (b >= 0)
+					addProcessed(1);
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int n = super.read(b, off, len);
+				if (n > 0)
+					addProcessed(n);
+				return n;
+			}
+		};
+	}
+
+	/**
+	 * Setter del numero totale di byte da leggere quando &egrave; gi&agrave; noto
+	 * (ad esempio dal manifest della divisione), cos&igrave; non serve
+	 * {@link #countTotalBytes()}.
+	 * 
+	 * @param totalBytes byte totali delle parti
+	 */
+	protected void setTotalBytes(long totalBytes) {
+		this.totalBytes = totalBytes;
+	}
+
+	/**
+	 * Metodo che azzera l'avanzamento all'inizio dell'esecuzione.
+	 */
+	protected void resetProcessed() {
+		processed.reset();
+	}
+
+	/**
+	 * Getter del numero di thread che copiano contemporaneamente le parti in
+	 * chiaro
 	 * 
-	 * @param inc incremento
+	 * @return numero di thread
 	 */
-	public void setInc(int inc) {
-		this.inc = inc;
+	public int getWorkers() {
+		return workers;
+	}
+
+	/**
+	 * Setter del numero di thread che copiano contemporaneamente le parti in
+	 * chiaro. Con 1 le parti vengono copiate una dopo l'altra, con un valore
+	 * maggiore ogni thread scrive la sua parte nella posizione indicata dal suo
+	 * Header, se i dispositivi del job hanno posti liberi nel limite dello
+	 * scheduler. Vale solo per le parti che hanno l'Header in ogni parte; le parti
+	 * compresse e/o cifrate usano sempre il pool condiviso grande quanto i core.
+	 * 
+	 * @param workers numero di thread
+	 */
+	public void setWorkers(int workers) {
+		this.workers = Math.max(1, workers);
+	}
+
+	/**
+	 * Getter per sapere se le parti vengono copiate tramite memory mapping
+	 * 
+	 * @return true se viene usato il memory mapping
+	 */
+	public boolean isMappedIO() {
+		return mappedIO;
+	}
+
+	/**
+	 * Setter per copiare le parti mappandole a finestre insieme al file ricomposto
+	 * con services>MappedIOService invece di usare FileChannel.transferTo(). La
+	 * dimensione delle finestre si imposta con MappedIOService.setWindowSize().
+	 * 
+	 * @param mappedIO true per usare il memory mapping
+	 */
+	public void setMappedIO(boolean mappedIO) {
+		this.mappedIO = mappedIO;
+	}
+
+	/**
+	 * Getter del codec con cui sono state compresse le parti
+	 * 
+	 * @return codec di decompressione
+	 */
+	public ICodec getCodec() {
+		return codec;
+	}
+
+	/**
+	 * Setter del codec con cui sono state compresse le parti, letto dall'Header
+	 * della parte passata come input
+	 * 
+	 * @param codec codec di services>CodecService
+	 */
+	public void setCodec(ICodec codec) {
+		this.codec = codec;
 	}
 
 	/**
@@ -105,44 +300,101 @@ public abstract class AbstractStitcher implements ISplitter, Runnable {
 	}
 
 	/**
-	 * Metodo che si occupa di bufferizzare con un buffer di lunghezza MAX_SIZE le
-	 * scritture su file.
+	 * Metodo che copia tutti i byte dello stream di input su quello di output fino
+	 * alla fine dello stream, usando un buffer preso in prestito da
+	 * services>BufferPoolService.
 	 * 
-	 * @param bytesPerSplit dimensione dei byte da bufferizzare
-	 * @param is            stream da cui leggere i byte
-	 * @param os            stream su cui scrivere i byte
+	 * @param is stream da cui leggere i byte
+	 * @param os stream su cui scrivere i byte
+	 * @throws IOException in caso di errore di lettura/scrittura o se il job viene
+	 *                     fermato
 	 */
-	public void bufferedReadWrite(long bytesPerSplit, InputStream is, OutputStream os) {
-		if (bytesPerSplit > MAX_SIZE) {
-			long numReads = bytesPerSplit / MAX_SIZE;
-			long numRemainingRead = bytesPerSplit % MAX_SIZE;
-			for (int y = 0; y < numReads; y++) {
-				this.readWrite(is, os, MAX_SIZE);
-			}
-			if (numRemainingRead > 0) {
-				this.readWrite(is, os, numRemainingRead);
-			}
-		} else {
-			this.readWrite(is, os, bytesPerSplit);
-		}
+	public void bufferedReadWriteAll(InputStream is, OutputStream os) throws IOException {
+		bufferedReadWriteAll(is, os, null);
 	}
 
 	/**
-	 * Metodo che legge/scrive una dimensione prefissata di byte su un buffer.
+	 * Metodo identico a {@link #bufferedReadWriteAll(InputStream, OutputStream)}
+	 * che aggiorna anche il checksum con i byte scritti.
 	 * 
-	 * @param buffSize dimensione del buffer
-	 * @param is       stream da cui leggere i byte
-	 * @param os       stream su cui scrivere i byte
+	 * @param is  stream da cui leggere i byte
+	 * @param os  stream su cui scrivere i byte
+	 * @param crc checksum da aggiornare, null per nessun checksum
+	 * @throws IOException in caso di errore di lettura/scrittura o se il job viene
+	 *                     fermato
 	 */
-	public void readWrite(InputStream is, OutputStream os, long buffSize) {
-		byte[] buff = new byte[(int) buffSize];
+	public void bufferedReadWriteAll(InputStream is, OutputStream os, Checksum crc) throws IOException {
+		ByteBuffer buffer = BufferPoolService.lease(false);
 		try {
-			int nRead = is.read(buff);
-			if (nRead > 0) {
+			byte[] buff = buffer.array();
+			int nRead;
+			while ((nRead = is.read(buff)) != -1) {
+				if (crc != null)
+					crc.update(buff, 0, nRead);
 				os.write(buff, 0, nRead);
+				throttle(nRead);
+				control.checkpoint();
 			}
-		} catch (IOException e) {
-			main.printError("I/O Error");
+		} finally {
+			BufferPoolService.release(buffer);
+		}
+	}
+
+	/**
+	 * Metodo che trasferisce un intervallo di byte di una parte direttamente sul
+	 * canale del file ricomposto con FileChannel.transferTo() (zero-copy), oppure
+	 * a finestre mappate da services>MappedIOService se {@link #isMappedIO()}.
+	 * 
+	 * @param src      canale della parte
+	 * @param position posizione nella parte da cui iniziare a copiare
+	 * @param count    numero di byte da copiare
+	 * @param dest     canale su cui scrivere i byte (lettura e scrittura se
+	 *                 mappato)
+	 * @throws IOException in caso di errore di lettura/scrittura o se il job viene
+	 *                     fermato
+	 */
+	public void transferReadWrite(FileChannel src, long position, long count, FileChannel dest)
+			throws IOException {
+		transferReadWrite(src, position, count, dest, null);
+	}
+
+	/**
+	 * Metodo identico a
+	 * {@link #transferReadWrite(FileChannel, long, long, FileChannel)} che aggiorna
+	 * anche il checksum: ogni passo viene letto una sola volta in un buffer
+	 * diretto con services>ChecksumService.copy() e scritto dallo stesso buffer,
+	 * oppure calcolato sulla finestra mappata.
+	 * 
+	 * @param src      canale della parte
+	 * @param position posizione nella parte da cui iniziare a copiare
+	 * @param count    numero di byte da copiare
+	 * @param dest     canale su cui scrivere i byte (lettura e scrittura se
+	 *                 mappato)
+	 * @param crc      checksum da aggiornare, null per nessun checksum
+	 * @throws IOException in caso di errore di lettura/scrittura o se il job viene
+	 *                     fermato
+	 */
+	public void transferReadWrite(FileChannel src, long position, long count, FileChannel dest, Checksum crc)
+			throws IOException {
+		long done = 0;
+		while (done < count) {
+			control.checkpoint();
+			// copio a passi di PROGRESS_STEP (pi&ugrave; piccoli se limitato) per
+			// aggiornare l'avanzamento
+			long step = Math.min(count - done, chunkSize(PROGRESS_STEP));
+			long nTransferred;
+			if (mappedIO) {
+				MappedIOService.copy(src, position + done, step, dest, dest.position(), crc);
+				nTransferred = Math.min(step, Math.max(0, src.size() - position - done));
+			} else if (crc != null)
+				nTransferred = ChecksumService.copy(crc, src, position + done, step, dest);
+			else
+				nTransferred = src.transferTo(position + done, step, dest);
+			if (nTransferred <= 0)
+				break; // fine della parte
+			done += nTransferred;
+			processed.add(nTransferred);
+			throttle(nTransferred);
 		}
 	}
 
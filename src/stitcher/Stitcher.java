@@ -1,13 +1,35 @@
 package stitcher;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.Checksum;
 
-import gui.MainPanel;
+import core.Header;
+import core.Manifest;
+import core.JobStoppedException;
+import core.IJobListener;
+import services.ChecksumService;
 import services.HeaderService;
+import services.ManifestService;
 
 /**
  * @author federico
@@ -15,7 +37,15 @@ import services.HeaderService;
  */
 public class Stitcher extends AbstractStitcher {
 	protected String sourcePath;
-	protected long stitchPoints[];
+	// prima parte da riunire e byte gi&agrave; scritti, mantenuti tra una pausa e la ripresa
+	private int nextPart = 1;
+	private long doneBytes = 0;
+	// parti gi&agrave; riunite della divisione setId, per le parti con l'Header in ogni parte
+	private final BitSet doneParts = new BitSet();
+	private long setId = 0;
+	private int[] partChecksums;
+	private volatile int fileChecksum = 0;
+	private static final ForkJoinPool transformPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
 
 	/**
 	 * Costruttore della classe Stitcher che inizializza gli attributi e mantiene le
@@ -26,12 +56,11 @@ public class Stitcher extends AbstractStitcher {
 	 * @param df       path della cartella di destinazione
 	 * @param part     numero della parte
 	 * @param totParts numero delle parti totali della divisione
-	 * @param main     oggetto MainPanel usato per stampare gli errori
+	 * @param main     listener che riceve gli errori
 	 */
-	public Stitcher(String name, String sf, String df, int part, int totParts, MainPanel main) {
+	public Stitcher(String name, String sf, String df, int part, int totParts, IJobListener main) {
 		super(name, sf, df, part, totParts, main);
 		this.sourcePath = (new File(super.getSourceFilePath())).getParent();
-		this.stitchPoints = new long[totParts];
 	}
 
 	/**
@@ -82,41 +111,443 @@ public class Stitcher extends AbstractStitcher {
 	}
 
 	/**
-	 * Metodo esecutivo per ricomporre le parti in un unico file.
+	 * Metodo che apre lo stream dei dati originali di una parte. In questa classe
+	 * i dati sono salvati in chiaro quindi viene restituito lo stream stesso, le
+	 * sottoclassi lo avvolgono con la decifratura e/o la decompressione.
+	 * 
+	 * @param is stream della parte posizionato dopo l'eventuale Header
+	 * @param h  Header della parte, null se la parte non ce l'ha
+	 * @return stream da cui leggere i dati originali
+	 * @throws IOException in caso di errore di lettura
+	 */
+	protected InputStream openPartStream(InputStream is, Header h) throws IOException {
+		return is;
+	}
+
+	/**
+	 * Metodo esecutivo per ricomporre le parti in un unico file. Se la parte
+	 * passata come input ha l'Header con l'identificativo della divisione le parti
+	 * vengono riunite con {@link #runParallel(Header)}, altrimenti la divisione
+	 * &egrave; stata fatta da una versione che scriveva l'Header solo nella prima
+	 * parte e viene riunita in ordine con {@link #runSequential()}.
 	 */
 	@Override
 	public void run() {
-		String currFile = null;
+		Header h = HeaderService.probeHeader(Paths.get(super.getSourceFilePath()));
+		if (h != null && h.getSetId() != 0)
+			runParallel(h);
+		else
+			runSequential();
+	}
+
+	/**
+	 * Metodo che prepara il piano delle parti da riunire. Se accanto alle parti
+	 * c'&egrave; il manifest della stessa divisione le informazioni di tutte le
+	 * parti vengono prese dal manifest con una sola lettura e di ogni parte viene
+	 * controllata solo la dimensione; l'Header di ogni parte viene poi controllato
+	 * quando la parte viene aperta da {@link #stitchPart(int, Manifest, String)}.
+	 * Altrimenti il piano viene costruito con {@link #checkParts(Header)}.
+	 * 
+	 * @param given Header della parte passata come input
+	 * @return piano delle parti, null se una parte manca o non appartiene alla
+	 *         divisione
+	 */
+	private Manifest planParts(Header given) {
+		Manifest m = ManifestService.readManifest(ManifestService.getManifestPath(this.sourcePath, super.getName()));
+		if (m == null || m.getSetId() != given.getSetId() || m.getTotParts() != given.getTotParts()
+				|| !m.getName().equals(given.getName()))
+			return checkParts(given); // manifest assente o di un'altra divisione
+		for (int i = 1; i <= m.getTotParts(); i++) {
+			File cFile = new File(this.sourcePath, m.getFile(i));
+			if (!cFile.isFile()) {
+				super.main.printError("File " + cFile + " not found");
+				return null;
+			}
+			if (cFile.length() != m.getStoredLength(i)) {
+				super.main.printError("File " + cFile + " is truncated or corrupted");
+				return null;
+			}
+		}
+		return m;
+	}
+
+	/**
+	 * Metodo che controlla tutte le parti prima di scrivere il file ricomposto:
+	 * ogni parte deve esistere e avere un Header della stessa divisione, con il
+	 * suo numero e l'intervallo che segue quello della parte precedente.
+	 * Cos&igrave; un file con lo stesso nome di una parte ma di un'altra
+	 * divisione, o di una divisione precedente dello stesso file, viene rifiutato
+	 * invece di finire nel file ricomposto.
+	 * 
+	 * @param given Header della parte passata come input
+	 * @return piano delle parti costruito dagli Header, null se una parte manca
+	 *         o non appartiene alla divisione
+	 */
+	private Manifest checkParts(Header given) {
+		Manifest m = new Manifest(given.getSetId(), given.getName(), super.getParts(), given.isCompress(),
+				given.isEncrypt(), given.getCodec());
+		long offset = 0;
+		for (int i = 1; i <= super.getParts(); i++) {
+			String partName = super.getName() + "." + i;
+			File cFile = new File(this.sourcePath, partName);
+			if (!cFile.isFile()) {
+				super.main.printError("File " + cFile + " not found");
+				return null;
+			}
+			Header h = HeaderService.probeHeader(cFile.toPath());
+			if (!belongsToSet(h, given, i, offset)) {
+				super.main.printError("File " + cFile + " is not part " + i + " of this split of " + super.getName());
+				return null;
+			}
+			m.setPart(i, partName, offset, h.getLength(), cFile.length(), 0, h.getChecksum());
+			offset += h.getLength();
+		}
+		return m;
+	}
+
+	/**
+	 * Metodo che controlla se l'Header di una parte appartiene alla divisione.
+	 * 
+	 * @param h      Header della parte, null se non letto
+	 * @param given  Header della parte passata come input
+	 * @param part   numero che la parte deve avere
+	 * @param offset posizione che la parte deve avere nel file originale
+	 * @return true se la parte &egrave; quella attesa
+	 */
+	static boolean belongsToSet(Header h, Header given, int part, long offset) {
+		return h != null && h.getSetId() == given.getSetId() && h.getPart() == part
+				&& h.getTotParts() == given.getTotParts() && h.getName().equals(given.getName())
+				&& h.isCompress() == given.isCompress() && h.isEncrypt() == given.isEncrypt()
+				&& h.getCodec() == given.getCodec() && h.getOffset() == offset && h.getLength() >= 0;
+	}
+
+	/**
+	 * Metodo esecutivo per ricomporre le parti che hanno l'Header in ogni parte.
+	 * Dopo aver preparato il piano delle parti con {@link #planParts(Header)} ogni
+	 * parte viene scritta nella posizione del file ricomposto indicata dal piano,
+	 * quindi le parti sono indipendenti: quelle compresse e/o cifrate vengono
+	 * trasformate come task del pool work-stealing condiviso grande quanto i
+	 * core, quelle in chiaro da al massimo {@link #getWorkers()} thread, contati
+	 * nel limite dei dispositivi dello scheduler, oppure una dopo l'altra. Se il
+	 * job viene messo in pausa le parti finite restano nel file ricomposto e alla
+	 * ripresa vengono scritte solo le altre; se viene annullato il file
+	 * ricomposto viene cancellato.
+	 * 
+	 * @param given Header della parte passata come input
+	 */
+	private void runParallel(Header given) {
 		String path = super.getDestFolderPath() + File.separator + super.getName();
+		Manifest plan = planParts(given);
+		if (plan == null)
+			return;
+		boolean resuming;
+		synchronized (doneParts) {
+			if (setId != given.getSetId()) // le parti sono cambiate durante la pausa
+				doneParts.clear();
+			setId = given.getSetId();
+			resuming = !doneParts.isEmpty();
+			if (!resuming || partChecksums == null)
+				partChecksums = new int[super.getParts() + 1];
+		}
+		fileChecksum = 0;
+		resetProcessed();
+		setTotalBytes(plan.getTotalStored());
+		for (int i = 1; i <= super.getParts(); i++)
+			if (isPartDone(i))
+				addProcessed(plan.getStoredLength(i));
+		boolean streamed = isCompress() || isCrypted();
+		ExecutorService pool = null;
+		int workers = 1;
+		if (streamed)
+			pool = transformPool;
+		else {
+			// i thread in pi&ugrave; occupano posti sui dispositivi del job nello scheduler
+			workers = getControl().acquireWorkers(Math.min(getWorkers(), super.getParts()));
+			if (workers > 1)
+				pool = Executors.newFixedThreadPool(workers);
+		}
 		try {
-			FileOutputStream fos = new FileOutputStream(path);
-			for (int i = 1; i <= super.getParts(); i++) {
+			// il file ricomposto viene portato alla dimensione finale una sola volta, prima che
+			// ogni parte lo apra con il proprio canale: FileChannel.map() allunga il file con
+			// truncate() senza lock tra i canali e potrebbe accorciarlo sotto la finestra
+			// mappata da un'altra parte
+			long total = plan.getOffset(super.getParts()) + plan.getLength(super.getParts());
+			try (RandomAccessFile dest = new RandomAccessFile(path, "rw")) {
+				dest.setLength(total);
+			}
+			boolean ok = true;
+			if (pool == null) {
+				for (int i = 1; i <= super.getParts() && ok; i++)
+					if (!isPartDone(i))
+						ok = stitchPart(i, plan, path);
+			} else {
+				List<Future<Boolean>> written = new ArrayList<Future<Boolean>>();
+				for (int i = 1; i <= super.getParts(); i++) {
+					if (isPartDone(i))
+						continue;
+					final int part = i;
+					written.add(pool.submit(() -> stitchPart(part, plan, path)));
+				}
+				IOException error = null;
+				try {
+					for (Future<Boolean> f : written) {
+						try {
+							ok &= f.get();
+						} catch (ExecutionException e) {
+							// il pool work-stealing avvolge le eccezioni dei task
+							Throwable cause = e.getCause();
+							while (!(cause instanceof IOException) && cause.getCause() != null)
+								cause = cause.getCause();
+							IOException failure = cause instanceof IOException ? (IOException) cause
+									: new IOException(cause);
+							// un errore vero prevale sull'arresto delle altre parti
+							if (error == null || error instanceof JobStoppedException)
+								error = failure;
+						}
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					ok = false;
+				}
+				if (error != null)
+					throw error;
+			}
+			if (ok) {
+				// CRC32C del file ricomposto combinando quelli delle parti, senza rileggerlo
+				int crc = 0;
+				for (int i = 1; i <= super.getParts(); i++)
+					crc = ChecksumService.combine(crc, partChecksums[i], plan.getLength(i));
+				if (plan.getFileChecksum() != 0 && crc != plan.getFileChecksum()) {
+					super.main.printError("Checksum of " + super.getName() + " does not match the manifest");
+					ok = false;
+				} else
+					fileChecksum = crc;
+			}
+			if (!ok)
+				new File(path).delete(); // una parte non valida, l'errore &egrave; gi&agrave; stato segnalato
+			clearDoneParts();
+		} catch (JobStoppedException e) {
+			if (e.isCancelled()) {
+				clearDoneParts();
+				new File(path).delete();
+			}
+		} catch (IOException e) {
+			clearDoneParts();
+			super.main.printError("I/O Error Stitch");
+		} finally {
+			if (pool != null && pool != transformPool)
+				pool.shutdown();
+			getControl().releaseWorkers(workers);
+		}
+	}
+
+	/**
+	 * Metodo che scrive una parte nel file ricomposto a partire dalla posizione
+	 * indicata dal piano, con un canale del file ricomposto aperto solo per
+	 * questa parte. Prima di scrivere controlla che l'Header della parte sia
+	 * quello atteso dal piano e alla fine che i byte scritti siano quelli
+	 * indicati dal piano e che il loro CRC32C, calcolato mentre vengono scritti,
+	 * sia quello registrato nell'Header e nel manifest. Una parte non scrive mai
+	 * oltre il proprio intervallo: se &egrave; pi&ugrave; lunga del previsto,
+	 * anche dopo la decompressione, viene scartata prima di toccare le parti
+	 * vicine che gli altri thread possono aver gi&agrave; scritto.
+	 * 
+	 * @param part numero della parte
+	 * @param plan piano delle parti
+	 * @param path path del file ricomposto
+	 * @return true se la parte &egrave; stata scritta completamente
+	 * @throws IOException in caso di errore di lettura/scrittura o se il job viene
+	 *                     fermato
+	 */
+	private boolean stitchPart(int part, Manifest plan, String path) throws IOException {
+		getControl().checkpoint();
+		File cFile = new File(this.sourcePath, plan.getFile(part));
+		Checksum crc = ChecksumService.newChecksum();
+		try (FileChannel src = FileChannel.open(cFile.toPath(), StandardOpenOption.READ);
+				FileChannel dest = FileChannel.open(Paths.get(path), StandardOpenOption.READ,
+						StandardOpenOption.WRITE)) {
+			Header h = HeaderService.probeHeader(src);
+			if (h == null || h.getSetId() != plan.getSetId() || h.getPart() != part
+					|| h.getOffset() != plan.getOffset(part) || h.getLength() != plan.getLength(part)) {
+				super.main.printError("File " + cFile + " is not part " + part + " of this split of " + super.getName());
+				return false;
+			}
+			// salto l'intero con la dimensione dell'header e l'header stesso
+			long dataStart = HeaderService.getHeaderDim(Channels.newInputStream(src), super.main)
+					+ HeaderService.getIntDim();
+			addProcessed(dataStart);
+			dest.position(plan.getOffset(part));
+			if (isCompress() || isCrypted()) {
+				src.position(dataStart);
+				LimitedOutputStream os = new LimitedOutputStream(Channels.newOutputStream(dest),
+						plan.getLength(part));
+				try (InputStream is = openPartStream(
+						new BufferedInputStream(countProcessed(Channels.newInputStream(src)), (int) MAX_SIZE), h)) {
+					super.bufferedReadWriteAll(is, os, crc);
+				} catch (IOException e) {
+					if (!os.isExceeded())
+						throw e;
+				}
+				if (os.isExceeded()) {
+					super.main.printError("File " + cFile + " is corrupted (longer than expected)");
+					return false;
+				}
+			} else if (src.size() - dataStart > plan.getLength(part)) {
+				super.main.printError("File " + cFile + " is corrupted (longer than expected)");
+				return false;
+			} else
+				super.transferReadWrite(src, dataStart, src.size() - dataStart, dest, crc);
+			if (dest.position() - plan.getOffset(part) != plan.getLength(part)) {
+				super.main.printError("File " + cFile + " is truncated or corrupted");
+				return false;
+			}
+			int actual = (int) crc.getValue();
+			if ((h.getChecksum() != 0 && actual != h.getChecksum())
+					|| (plan.getChecksum(part) != 0 && actual != plan.getChecksum(part))) {
+				super.main.printError("File " + cFile + " is corrupted (checksum mismatch)");
+				return false;
+			}
+			partChecksums[part] = actual;
+		}
+		synchronized (doneParts) {
+			doneParts.set(part);
+		}
+		return true;
+	}
+
+	/**
+	 * Getter del CRC32C del file ricomposto, ottenuto combinando i checksum delle
+	 * parti controllati durante l'ultima esecuzione
+	 * 
+	 * @return checksum, 0 se non disponibile (divisioni senza checksum o job non
+	 *         finito)
+	 */
+	public int getFileChecksum() {
+		return fileChecksum;
+	}
+
+	/**
+	 * Metodo che controlla se una parte &egrave; gi&agrave; stata riunita prima
+	 * di una pausa.
+	 * 
+	 * @param part numero della parte
+	 * @return true se la parte &egrave; gi&agrave; nel file ricomposto
+	 */
+	private boolean isPartDone(int part) {
+		synchronized (doneParts) {
+			return doneParts.get(part);
+		}
+	}
+
+	/**
+	 * Metodo che dimentica le parti riunite quando il job finisce o viene
+	 * annullato, cos&igrave; la prossima esecuzione riparte da capo.
+	 */
+	private void clearDoneParts() {
+		synchronized (doneParts) {
+			doneParts.clear();
+			setId = 0;
+		}
+	}
+
+	/**
+	 * Metodo per ricomporre in ordine le parti che hanno l'Header solo nella
+	 * prima parte. Se le parti sono
+	 * salvate in chiaro vengono copiate con transferReadWrite(), altrimenti ogni
+	 * parte viene letta attraverso {@link #openPartStream(InputStream, Header)} e i dati
+	 * decifrati e/o decompressi vengono scritti direttamente nel file finale in
+	 * un'unica passata. Se il job viene messo in pausa il file ricomposto viene
+	 * tagliato alla fine dell'ultima parte completa e alla ripresa si continua
+	 * dalla parte successiva; se viene annullato il file ricomposto viene
+	 * cancellato.
+	 */
+	private void runSequential() {
+		String currFile = null;
+		String path = super.getDestFolderPath() + File.separator + super.getName();
+		boolean streamed = isCompress() || isCrypted();
+		boolean resuming = nextPart > 1;
+		resetProcessed();
+		countTotalBytes();
+		for (int i = 1; i < nextPart; i++)
+			addProcessed(new File(this.sourcePath + File.separator + super.getName() + "." + i).length());
+		try (FileChannel dest = resuming
+				? FileChannel.open(Paths.get(path), StandardOpenOption.READ, StandardOpenOption.WRITE)
+				: FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+						StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			if (resuming) {
+				dest.truncate(doneBytes);
+				dest.position(doneBytes);
+			}
+			OutputStream os = streamed ? Channels.newOutputStream(dest) : null;
+			for (int i = nextPart; i <= super.getParts(); i++) {
+				getControl().checkpoint();
 				currFile = this.sourcePath + File.separator + super.getName() + "." + i;
 				File cFile = new File(currFile);
 				long fileLen = cFile.length();
-				FileInputStream fis = new FileInputStream(cFile);
-				if (i == 1) {
-					long skipData = -1;
-					if ((skipData = HeaderService.getHeaderDim(fis, super.main)) != -1) {
-						fis.skip(skipData); // skippo l'header, i 4
-											// byte dell'intero sono
-											// gi&agrave; stati letti da
-											// getHeaderDim()
-						super.bufferedReadWrite(fileLen - skipData - HeaderService.getIntDim(), fis, fos);
-						stitchPoints[i - 1] = fileLen - skipData - HeaderService.getIntDim();
-					}
-				} else {
-					super.bufferedReadWrite(fileLen, fis, fos);
-					stitchPoints[i - 1] = fileLen;
+				try (FileInputStream fis = new FileInputStream(cFile)) {
+					long dataStart = 0;
+					if (i == 1) // salto l'intero con la dimensione dell'header e l'header stesso
+						dataStart = HeaderService.getHeaderDim(fis, super.main) + HeaderService.getIntDim();
+					addProcessed(dataStart);
+					if (streamed) {
+						fis.getChannel().position(dataStart);
+						InputStream is = openPartStream(new BufferedInputStream(countProcessed(fis), (int) MAX_SIZE),
+								null);
+						super.bufferedReadWriteAll(is, os);
+						is.close();
+					} else
+						super.transferReadWrite(fis.getChannel(), dataStart, fileLen - dataStart, dest);
 				}
-				fis.close();
+				nextPart = i + 1;
+				doneBytes = dest.position();
 			}
-			fos.close();
+			nextPart = 1;
 		} catch (FileNotFoundException e) {
+			nextPart = 1;
 			super.main.printError("File " + currFile + " not found");
+		} catch (JobStoppedException e) {
+			if (e.isCancelled()) {
+				nextPart = 1;
+				new File(path).delete();
+			}
 		} catch (IOException e) {
+			nextPart = 1;
 			super.main.printError("I/O Error Stitch");
 		}
-		super.main.getJobState().setValue(super.main.getJobState().getValue() + getInc());
+	}
+
+	/**
+	 * Classe annidata che avvolge lo stream del file ricomposto e rifiuta di
+	 * scrivere pi&ugrave; byte di quelli della parte, cos&igrave; una parte
+	 * corrotta che si decomprime in pi&ugrave; byte non sovrascrive la parte
+	 * successiva.
+	 */
+	private static class LimitedOutputStream extends FilterOutputStream {
+		private long remaining;
+		private boolean exceeded = false;
+
+		private LimitedOutputStream(OutputStream os, long limit) {
+			super(os);
+			this.remaining = limit;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (len > remaining) {
+				exceeded = true;
+				throw new IOException("Part longer than expected");
+			}
+			out.write(b, off, len);
+			remaining -= len;
+		}
+
+		private boolean isExceeded() {
+			return exceeded;
+		}
 	}
 }
@@ -1,12 +1,10 @@
 package stitcher;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.zip.GZIPInputStream;
-import gui.MainPanel;
+import java.io.InputStream;
+
+import core.Header;
+import core.IJobListener;
 
 /**
  * @author federico
@@ -22,9 +20,9 @@ public class StitcherCompressCrypt extends StitcherCrypt {
 	 * @param df       path della cartella di destinazione
 	 * @param part     numero della parte
 	 * @param totParts numero delle parti totali della divisione
-	 * @param main     oggetto MainPanel usato per stampare gli errori
+	 * @param main     listener che riceve gli errori
 	 */
-	public StitcherCompressCrypt(String name, String sf, String df, int part, int totParts, MainPanel main) {
+	public StitcherCompressCrypt(String name, String sf, String df, int part, int totParts, IJobListener main) {
 		super(name, sf, df, part, totParts, main);
 	}
 
@@ -41,42 +39,27 @@ public class StitcherCompressCrypt extends StitcherCrypt {
 	}
 
 	/**
-	 * Metodo esecutivo per ricomporre le parti in un unico file, decifrarlo e
-	 * decomprimerlo.
+	 * Getter per sapere se il file &egrave; stato compresso
+	 * 
+	 * @return true -> in questo oggetto &egrave; abilitata
 	 */
 	@Override
-	public void run() {
-		super.run();
-		String path = super.getDestFolderPath() + File.separator + super.getName();
-		try {
-			File input = new File(path);
-			if (input.exists()) {
-				FileInputStream fis = new FileInputStream(input);
-				FileOutputStream fos = new FileOutputStream(path + ".deCompress");
-				GZIPInputStream gis = new GZIPInputStream(fis);
-
-				byte[] buff = new byte[(int) super.MAX_SIZE];
-				try {
-					int nRead = 0;
-					while ((nRead = gis.read(buff)) > 0) {
-						fos.write(buff, 0, nRead);
-					}
-				} catch (IOException e) {
-					main.printError("I/O Error");
-				}
-				gis.close();
-				fis.close();
-				fos.close();
-
-				new File(path).delete();
-				new File(path + ".deCompress").renameTo(new File(path));
-			}
-		} catch (FileNotFoundException e) {
-			super.main.printError("File " + path + " not found");
-		} catch (IOException e) {
-			super.main.printError("I/O Error Decompress");
-		}
-		super.main.getJobState().setValue(super.main.getJobState().getValue() + this.getInc());
+	public boolean isCompress() {
+		return true;
 	}
 
+	/**
+	 * Metodo che apre lo stream dei dati originali di una parte decifrandola e poi
+	 * decomprimendo i dati
+	 * ottenuti con il codec salvato nell'Header.
+	 * 
+	 * @param is stream della parte posizionato dopo l'eventuale Header
+	 * @param h  Header della parte, null se la parte non ce l'ha
+	 * @return stream da cui leggere i dati decifrati e decompressi
+	 * @throws IOException in caso di errore di lettura o password errata
+	 */
+	@Override
+	protected InputStream openPartStream(InputStream is, Header h) throws IOException {
+		return getCodec().decompress(super.openPartStream(is, h));
+	}
 }
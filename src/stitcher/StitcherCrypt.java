@@ -1,15 +1,13 @@
 package stitcher;
 
-import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
-import javax.crypto.Cipher;
-import javax.crypto.CipherOutputStream;
-
-import gui.MainPanel;
+import core.Header;
+import core.IJobListener;
+import core.JobControl;
 import services.EncryptService;
 import services.HeaderService;
 
@@ -18,6 +16,8 @@ import services.HeaderService;
  * Classe per riunire le parti splittate e cifrate in un unico file.
  */
 public class StitcherCrypt extends Stitcher {
+	private String password;
+	private static final int MAX_PASSWORD_ATTEMPTS = 3;
 
 	/**
 	 * Costruttore della classe StitcherCrypt che inizializza gli attributi.
@@ -27,9 +27,9 @@ public class StitcherCrypt extends Stitcher {
 	 * @param df       path della cartella di destinazione
 	 * @param part     numero della parte
 	 * @param totParts numero delle parti totali della divisione
-	 * @param main     oggetto MainPanel usato per stampare gli errori
+	 * @param main     listener che riceve gli errori
 	 */
-	public StitcherCrypt(String name, String sf, String df, int part, int totParts, MainPanel main) {
+	public StitcherCrypt(String name, String sf, String df, int part, int totParts, IJobListener main) {
 		super(name, sf, df, part, totParts, main);
 	}
 
@@ -46,43 +46,125 @@ public class StitcherCrypt extends Stitcher {
 	}
 
 	/**
-	 * Metodo esecutivo per ricomporre le parti in un unico file e decifrarlo.
+	 * Getter per sapere se il file &egrave; stato cifrato
+	 * 
+	 * @return true -> in questo oggetto &egrave; abilitata
 	 */
 	@Override
-	public void run() {
-		super.run();
-		String path = super.getDestFolderPath() + File.separator + super.getName();
-		String password = null;
-		Cipher cipher = null;
+	public boolean isCrypted() {
+		return true;
+	}
+
+	/**
+	 * Metodo che chiede la password all'utente finch&eacute; non viene verificata
+	 * sulla prima parte, cos&igrave; il file ricomposto non viene scritto con una
+	 * password sbagliata. Dopo {@value #MAX_PASSWORD_ATTEMPTS} password sbagliate il
+	 * job rinuncia, cos&igrave; un listener senza utente non la chiede all'infinito.
+	 * 
+	 * @return password corretta, null se l'utente rinuncia o sbaglia troppe volte
+	 * @throws IOException in caso di errore di lettura della prima parte
+	 */
+	private String askPassword() throws IOException {
+		for (int attempt = 0; attempt < MAX_PASSWORD_ATTEMPTS; attempt++) {
+			String password = super.main.takePassword(super.getName());
+			if (password == null)
+				return null;
+			FileInputStream fis = new FileInputStream(super.getSourceFilePath());
+			Header h = HeaderService.probeHeader(fis.getChannel());
+			fis.skip(HeaderService.getHeaderDim(fis, super.main)); // skippo l'header, i 4 byte dell'intero
+																	// sono gi&agrave; stati letti da
+																	// getHeaderDim()
+			boolean correct = EncryptService.checkPassword(password, fis, partAad(h), super.main);
+			fis.close();
+			if (correct)
+				return password;
+		}
+		return null;
+	}
 
-		while (password == null)
-			password = super.main.takePassword(super.getName());
+	/**
+	 * Metodo che apre lo stream dei dati originali di una parte leggendo
+	 * l'intestazione di cifratura all'inizio della parte e decifrando il resto, a
+	 * segmenti in parallelo o con il vecchio formato.
+	 * 
+	 * @param is stream della parte posizionato dopo l'eventuale Header
+	 * @param h  Header della parte, null se la parte non ce l'ha
+	 * @return stream da cui leggere i dati decifrati
+	 * @throws IOException in caso di errore di lettura o password errata
+	 */
+	@Override
+	protected InputStream openPartStream(InputStream is, Header h) throws IOException {
+		InputStream decrypted = EncryptService.getDecryptStream(password, super.openPartStream(is, h), partAad(h),
+				super.main);
+		if (decrypted == null)
+			throw new IOException("Wrong password");
+		return decrypted;
+	}
+
+	/**
+	 * Metodo che restituisce i dati autenticati dei segmenti di una parte, ricavati
+	 * dal suo Header.
+	 * 
+	 * @param h Header della parte, null se la parte non ce l'ha
+	 * @return dati autenticati, null se la parte non ha l'Header
+	 */
+	private static byte[] partAad(Header h) {
+		return h == null ? null : EncryptService.partAad(h.getSetId(), h.getPart(), h.getOffset());
+	}
 
+	/**
+	 * Metodo che prepara la password prima di leggere le parti: la chiede
+	 * all'utente se non &egrave; gi&agrave; nota e la trattiene in
+	 * services>EncryptService, cos&igrave; la chiave viene derivata una volta per
+	 * job. Lo usa anche stitcher>Verifier quando controlla una divisione cifrata.
+	 * 
+	 * @return true se la password &egrave; pronta, false se l'errore &egrave;
+	 *         gi&agrave; stato segnalato
+	 */
+	boolean acquirePassword() {
 		try {
-			while (cipher == null) {
-				FileInputStream fis = new FileInputStream(path);
-				for (int i = 0; i < super.getParts(); i++) {
-					if ((cipher = EncryptService.getCipherDecrypt(password, fis, main)) != null) {
-						FileOutputStream fos = new FileOutputStream(path + ".deCrypted", true);
-						CipherOutputStream cos = new CipherOutputStream(fos, cipher);
-						super.bufferedReadWrite(
-								stitchPoints[i] - HeaderService.getIntDim() - EncryptService.getSaltDim(), fis, cos);
-						cos.close();
-						fos.close();
-					} else {
-						password = super.main.takePassword(super.getName());
-						break;
-					}
-				}
-				fis.close();
+			if (this.password == null) // alla ripresa dopo una pausa la password &egrave; gi&agrave; nota
+				this.password = askPassword();
+			if (this.password == null) {
+				super.main.printError("Wrong or missing password for " + super.getName());
+				return false;
 			}
-			new File(path).delete();
-			new File(path + ".deCrypted").renameTo(new File(path));
 		} catch (FileNotFoundException e) {
-			super.main.printError("File " + path + " not found");
+			super.main.printError("File " + super.getSourceFilePath() + " not found");
+			return false;
 		} catch (IOException e) {
 			super.main.printError("I/O Error Decrypt");
+			return false;
+		}
+		EncryptService.retain(this.password);
+		return true;
+	}
+
+	/**
+	 * Metodo che rilascia la password trattenuta da {@link #acquirePassword()}. Se
+	 * il job &egrave; in pausa la password viene tenuta per la ripresa.
+	 * 
+	 * @param control controllo del job che ha letto le parti
+	 */
+	void releasePassword(JobControl control) {
+		EncryptService.release(this.password);
+		if (!control.isStopped() || !control.isPaused())
+			this.password = null;
+	}
+
+	/**
+	 * Metodo esecutivo per ricomporre le parti in un unico file decifrandole. La
+	 * password viene chiesta una sola volta prima di iniziare e la chiave derivata
+	 * viene riusata per tutte le parti.
+	 */
+	@Override
+	public void run() {
+		if (!acquirePassword())
+			return;
+		try {
+			super.run();
+		} finally {
+			releasePassword(getControl());
 		}
-		super.main.getJobState().setValue(super.main.getJobState().getValue() + getInc());
 	}
 }
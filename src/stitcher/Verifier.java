@@ -0,0 +1,420 @@
+package stitcher;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Checksum;
+
+import core.Header;
+import core.IJobListener;
+import core.JobStoppedException;
+import core.Manifest;
+import services.ChecksumService;
+import services.HeaderService;
+import services.ManifestService;
+
+/**
+ * @author federico
+ * Classe per controllare le parti di una divisione senza riunirle: ogni parte viene letta,
+ * decifrata e/o decompressa come farebbe lo Stitcher della divisione ma i dati vengono
+ * scartati, controllando Header, lunghezza, CRC32C e per le parti cifrate i tag GCM dei
+ * segmenti. Le parti vengono lette contemporaneamente da al massimo {@link #getWorkers()}
+ * thread, contati nel limite di job del dispositivo delle parti, e alla fine vengono segnalate
+ * tutte le parti non valide, non solo la prima.
+ */
+public class Verifier extends AbstractStitcher {
+	private final Stitcher decoder;
+	private final String sourcePath;
+	// parti gi&agrave; controllate della divisione setId, mantenute tra una pausa e la ripresa
+	private final BitSet doneParts = new BitSet();
+	private long setId = 0;
+	private String[] problems;
+	private int[] partChecksums;
+	private long[] partOffsets, partLengths;
+	private volatile int fileChecksum = 0;
+
+	/**
+	 * Costruttore della classe Verifier che prende le informazioni della divisione
+	 * dallo Stitcher che la riunirebbe, usato per leggere i dati originali delle
+	 * parti. La cartella di destinazione &egrave; quella delle parti, dato che non
+	 * viene scritto nessun file.
+	 *
+	 * @param decoder Stitcher specializzato della divisione
+	 * @param main    listener che riceve gli errori
+	 */
+	public Verifier(Stitcher decoder, IJobListener main) {
+		super(decoder.getName(), decoder.getSourceFilePath(),
+				new File(decoder.getSourceFilePath()).getAbsoluteFile().getParent(), decoder.getPart(),
+				decoder.getParts(), main);
+		this.decoder = decoder;
+		this.sourcePath = super.getDestFolderPath();
+		setWorkers(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Getter della password con cui il file verr&agrave; cifrato
+	 *
+	 * @return null -> in questo oggetto non &egrave; presente
+	 */
+	public String getPassword() {
+		return null;
+	}
+
+	/**
+	 * Getter del numero delle parti in cui dividere il file
+	 *
+	 * @return 0 -> non abilitato in questa tipologia di job
+	 */
+	public long getBytes() {
+		return 0;
+	}
+
+	/**
+	 * Getter per sapere se le parti sono compresse
+	 *
+	 * @return lo stesso valore dello Stitcher della divisione
+	 */
+	public boolean isCompress() {
+		return decoder.isCompress();
+	}
+
+	/**
+	 * Getter per sapere se le parti sono cifrate
+	 *
+	 * @return lo stesso valore dello Stitcher della divisione
+	 */
+	public boolean isCrypted() {
+		return decoder.isCrypted();
+	}
+
+	/**
+	 * Getter del numero delle operazioni extra che un oggetto specializzato fa nel
+	 * calcolo della stima dell'incremento per la progress bar.
+	 *
+	 * @return le stesse operazioni dello Stitcher della divisione, che decifra
+	 *         e/o decomprime le parti
+	 */
+	public int getExtraOperations() {
+		return decoder.getExtraOperations();
+	}
+
+	/**
+	 * Getter del CRC32C del file originale, ottenuto combinando i checksum delle
+	 * parti controllate durante l'ultima esecuzione
+	 *
+	 * @return checksum, 0 se non disponibile (parti non valide o job non finito)
+	 */
+	public int getFileChecksum() {
+		return fileChecksum;
+	}
+
+	/**
+	 * Getter delle parti risultate non valide nell'ultima esecuzione
+	 *
+	 * @return numeri delle parti non valide in ordine crescente, vuoto se sono
+	 *         tutte valide
+	 */
+	public int[] getBadParts() {
+		synchronized (doneParts) {
+			List<Integer> bad = new ArrayList<Integer>();
+			for (int i = 1; problems != null && i < problems.length; i++)
+				if (problems[i] != null)
+					bad.add(i);
+			return bad.stream().mapToInt(Integer::intValue).toArray();
+		}
+	}
+
+	/**
+	 * Metodo esecutivo per controllare le parti. Solo le divisioni con l'Header in
+	 * ogni parte hanno i checksum e possono essere controllate; per le parti
+	 * cifrate la password viene chiesta una volta sola come fa
+	 * stitcher>StitcherCrypt.
+	 */
+	@Override
+	public void run() {
+		Header given = HeaderService.probeHeader(Paths.get(super.getSourceFilePath()));
+		if (given == null || given.getSetId() == 0) {
+			super.main.printError("Only splits with a Header in every part can be verified");
+			return;
+		}
+		StitcherCrypt crypt = decoder instanceof StitcherCrypt ? (StitcherCrypt) decoder : null;
+		if (crypt != null && !crypt.acquirePassword())
+			return;
+		try {
+			verifyAll(given);
+		} finally {
+			if (crypt != null)
+				crypt.releasePassword(getControl());
+		}
+	}
+
+	/**
+	 * Metodo che controlla tutte le parti, in parallelo se {@link #getWorkers()}
+	 * &egrave; maggiore di 1 e il dispositivo delle parti ha posti liberi nel
+	 * limite dello scheduler. Se accanto alle parti c'&egrave; il manifest della
+	 * stessa divisione ogni parte viene confrontata anche con il manifest. Gli
+	 * errori delle parti vengono segnalati alla fine in ordine di parte; se il job
+	 * viene messo in pausa le parti gi&agrave; controllate non vengono rilette
+	 * alla ripresa.
+	 *
+	 * @param given Header della parte passata come input
+	 */
+	private void verifyAll(Header given) {
+		Manifest m = ManifestService.readManifest(ManifestService.getManifestPath(this.sourcePath, super.getName()));
+		if (m != null && (m.getSetId() != given.getSetId() || m.getTotParts() != given.getTotParts()
+				|| !m.getName().equals(given.getName())))
+			m = null; // manifest di un'altra divisione, si controllano solo gli Header
+		final Manifest plan = m;
+		int parts = super.getParts();
+		synchronized (doneParts) {
+			if (setId != given.getSetId()) // le parti sono cambiate durante la pausa
+				doneParts.clear();
+			setId = given.getSetId();
+			if (doneParts.isEmpty() || problems == null) {
+				problems = new String[parts + 1];
+				partChecksums = new int[parts + 1];
+				partOffsets = new long[parts + 1];
+				partLengths = new long[parts + 1];
+			}
+		}
+		fileChecksum = 0;
+		resetProcessed();
+		if (plan != null)
+			setTotalBytes(plan.getTotalStored());
+		else
+			countTotalBytes();
+		for (int i = 1; i <= parts; i++)
+			if (isPartDone(i))
+				addProcessed(partFile(i, plan).length());
+		// i thread in pi&ugrave; occupano posti sul dispositivo delle parti nello scheduler
+		int workers = getControl().acquireWorkers(Math.min(getWorkers(), parts));
+		ExecutorService pool = workers > 1 ? Executors.newFixedThreadPool(workers) : null;
+		try {
+			if (pool == null) {
+				for (int i = 1; i <= parts; i++)
+					if (!isPartDone(i))
+						verifyPart(i, given, plan);
+			} else {
+				List<Future<Void>> checked = new ArrayList<Future<Void>>();
+				for (int i = 1; i <= parts; i++) {
+					if (isPartDone(i))
+						continue;
+					final int part = i;
+					checked.add(pool.submit(() -> {
+						verifyPart(part, given, plan);
+						return null;
+					}));
+				}
+				JobStoppedException stopped = null;
+				for (Future<Void> f : checked) {
+					try {
+						f.get();
+					} catch (ExecutionException e) {
+						if (e.getCause() instanceof JobStoppedException)
+							stopped = (JobStoppedException) e.getCause();
+						else
+							throw new IOException(e.getCause());
+					}
+				}
+				if (stopped != null)
+					throw stopped;
+			}
+			report(plan);
+			clearDoneParts();
+		} catch (JobStoppedException e) {
+			if (e.isCancelled())
+				clearDoneParts();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			clearDoneParts();
+		} catch (IOException e) {
+			clearDoneParts();
+			super.main.printError("I/O Error Verify");
+		} finally {
+			if (pool != null)
+				pool.shutdown();
+			getControl().releaseWorkers(workers);
+		}
+	}
+
+	/**
+	 * Metodo che segnala le parti non valide in ordine di parte. Se sono tutte
+	 * valide controlla che gli intervalli delle parti siano consecutivi e che il
+	 * CRC32C del file, ottenuto combinando quelli delle parti, sia quello del
+	 * manifest.
+	 *
+	 * @param plan manifest della divisione, null se non presente
+	 */
+	private void report(Manifest plan) {
+		int parts = super.getParts();
+		int bad = 0;
+		long offset = 0;
+		boolean known = true; // la fine della parte precedente &egrave; nota solo se &egrave; valida
+		for (int i = 1; i <= parts; i++) {
+			if (problems[i] == null && known && partOffsets[i] != offset)
+				problems[i] = "is not part " + i + " of this split of " + super.getName();
+			if (problems[i] != null) {
+				super.main.printError("File " + partFile(i, plan) + " " + problems[i]);
+				bad++;
+				known = false;
+			} else {
+				offset = partOffsets[i] + partLengths[i];
+				known = true;
+			}
+		}
+		if (bad > 0) {
+			super.main.printError(bad + " of " + parts + " parts of " + super.getName() + " are bad");
+			return;
+		}
+		int crc = 0;
+		for (int i = 1; i <= parts; i++)
+			crc = ChecksumService.combine(crc, partChecksums[i], partLengths[i]);
+		if (plan != null && plan.getFileChecksum() != 0 && crc != plan.getFileChecksum())
+			super.main.printError("Checksum of " + super.getName() + " does not match the manifest");
+		else
+			fileChecksum = crc;
+	}
+
+	/**
+	 * Metodo che controlla una parte e ne registra il risultato. Gli errori di
+	 * lettura e di decifratura (tag GCM non valido) rendono la parte non valida
+	 * senza fermare il controllo delle altre parti.
+	 *
+	 * @param part  numero della parte
+	 * @param given Header della parte passata come input
+	 * @param plan  manifest della divisione, null se non presente
+	 * @throws JobStoppedException se il job viene fermato
+	 */
+	private void verifyPart(int part, Header given, Manifest plan) throws JobStoppedException {
+		getControl().checkpoint();
+		String problem;
+		try {
+			problem = checkPart(part, partFile(part, plan), given, plan);
+		} catch (JobStoppedException e) {
+			throw e;
+		} catch (IOException e) {
+			problem = "is corrupted (" + (e.getMessage() != null ? e.getMessage() : "I/O Error") + ")";
+		}
+		synchronized (doneParts) {
+			problems[part] = problem;
+			doneParts.set(part);
+		}
+	}
+
+	/**
+	 * Metodo che legge una parte fino alla fine attraverso lo Stitcher della
+	 * divisione scartando i dati originali. Controlla che l'Header sia della
+	 * divisione (e uguale al manifest), che i byte originali siano quelli indicati
+	 * dall'Header e che il loro CRC32C sia quello registrato nell'Header e nel
+	 * manifest.
+	 *
+	 * @param part  numero della parte
+	 * @param cFile file della parte
+	 * @param given Header della parte passata come input
+	 * @param plan  manifest della divisione, null se non presente
+	 * @return descrizione del problema, null se la parte &egrave; valida
+	 * @throws IOException in caso di errore di lettura o di decifratura o se il
+	 *                     job viene fermato
+	 */
+	private String checkPart(int part, File cFile, Header given, Manifest plan) throws IOException {
+		if (!cFile.isFile())
+			return "not found";
+		if (plan != null && cFile.length() != plan.getStoredLength(part))
+			return "is truncated or corrupted";
+		Checksum crc = ChecksumService.newChecksum();
+		DiscardOutputStream sink = new DiscardOutputStream();
+		Header h;
+		try (FileChannel src = FileChannel.open(cFile.toPath(), StandardOpenOption.READ)) {
+			h = HeaderService.probeHeader(src);
+			if (h == null || !Stitcher.belongsToSet(h, given, part, h.getOffset()) || (plan != null
+					&& (h.getOffset() != plan.getOffset(part) || h.getLength() != plan.getLength(part))))
+				return "is not part " + part + " of this split of " + super.getName();
+			// salto l'intero con la dimensione dell'header e l'header stesso
+			long dataStart = HeaderService.getHeaderDim(Channels.newInputStream(src), super.main)
+					+ HeaderService.getIntDim();
+			addProcessed(dataStart);
+			src.position(dataStart);
+			InputStream is = countProcessed(Channels.newInputStream(src));
+			if (isCompress() || isCrypted())
+				is = decoder.openPartStream(new BufferedInputStream(is, (int) MAX_SIZE), h);
+			super.bufferedReadWriteAll(is, sink, crc);
+			is.close();
+		}
+		if (sink.count != h.getLength())
+			return "is truncated or corrupted";
+		int actual = (int) crc.getValue();
+		if ((h.getChecksum() != 0 && actual != h.getChecksum())
+				|| (plan != null && plan.getChecksum(part) != 0 && actual != plan.getChecksum(part)))
+			return "is corrupted (checksum mismatch)";
+		partChecksums[part] = actual;
+		partOffsets[part] = h.getOffset();
+		partLengths[part] = h.getLength();
+		return null;
+	}
+
+	/**
+	 * Getter del file di una parte, con il nome del manifest se presente
+	 *
+	 * @param part numero della parte
+	 * @param plan manifest della divisione, null se non presente
+	 * @return file della parte
+	 */
+	private File partFile(int part, Manifest plan) {
+		return new File(this.sourcePath, plan != null ? plan.getFile(part) : super.getName() + "." + part);
+	}
+
+	/**
+	 * Metodo che controlla se una parte &egrave; gi&agrave; stata controllata
+	 * prima di una pausa.
+	 *
+	 * @param part numero della parte
+	 * @return true se la parte &egrave; gi&agrave; stata controllata
+	 */
+	private boolean isPartDone(int part) {
+		synchronized (doneParts) {
+			return doneParts.get(part);
+		}
+	}
+
+	/**
+	 * Metodo che dimentica le parti controllate quando il job finisce o viene
+	 * annullato, cos&igrave; la prossima esecuzione riparte da capo. I problemi
+	 * trovati restano disponibili con {@link #getBadParts()}.
+	 */
+	private void clearDoneParts() {
+		synchronized (doneParts) {
+			doneParts.clear();
+			setId = 0;
+		}
+	}
+
+	/**
+	 * Classe annidata che scarta i dati originali delle parti contandoli.
+	 */
+	private static class DiscardOutputStream extends OutputStream {
+		private long count = 0;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+}